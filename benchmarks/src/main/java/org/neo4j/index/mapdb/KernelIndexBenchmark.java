@@ -0,0 +1,129 @@
+package org.neo4j.index.mapdb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.index.mapdb.provider.KeyType;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Index operations through the kernel of an impermanent database, backed by the MapDB provider or by Lucene
+ * as the baseline. The provider is picked by priority, like {@code MapDbIndexTest} and {@code LuceneIndexTest} do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class KernelIndexBenchmark {
+
+    private static final Label LABEL = DynamicLabel.label("benchmark");
+    private static final String PROPERTY = "bar";
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({"mapdb", "lucene"})
+    public String provider;
+
+    @Param({"INT", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"10", "100000"})
+    public int distinctValues;
+
+    @Param({"100000"})
+    public int nodes;
+
+    private GraphDatabaseService db;
+    private long[] nodeIds;
+    private int[] values;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        MapDbSchemaIndexProvider.PRIORITY = "mapdb".equals(this.provider) ? 2 : 0;
+        this.db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        this.nodeIds = new long[this.nodes];
+        this.values = new int[this.nodes];
+        for (int batch = 0; batch < this.nodes; batch += BATCH_SIZE) {
+            try (Transaction tx = this.db.beginTx()) {
+                for (int i = batch; i < Math.min(this.nodes, batch + BATCH_SIZE); i++) {
+                    final Node node = this.db.createNode(LABEL);
+                    this.values[i] = i % this.distinctValues;
+                    node.setProperty(PROPERTY, this.keyType.value(this.values[i]));
+                    this.nodeIds[i] = node.getId();
+                }
+                tx.success();
+            }
+        }
+        final IndexDefinition index;
+        try (Transaction tx = this.db.beginTx()) {
+            index = this.db.schema().indexFor(LABEL).on(PROPERTY).create();
+            tx.success();
+        }
+        try (Transaction tx = this.db.beginTx()) {
+            this.db.schema().awaitIndexOnline(index, 10, TimeUnit.MINUTES);
+            tx.success();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.db.shutdown();
+    }
+
+    @Benchmark
+    public void insert() {
+        try (Transaction tx = this.db.beginTx()) {
+            this.db.createNode(LABEL).setProperty(PROPERTY, this.keyType.value(this.nextNode() % this.distinctValues));
+            tx.success();
+        }
+    }
+
+    @Benchmark
+    public void update() {
+        final int i = this.nextNode();
+        final int after = (this.values[i] + 1) % this.distinctValues;
+        try (Transaction tx = this.db.beginTx()) {
+            this.db.getNodeById(this.nodeIds[i]).setProperty(PROPERTY, this.keyType.value(after));
+            tx.success();
+        }
+        this.values[i] = after;
+    }
+
+    @Benchmark
+    public void lookup(final Blackhole blackhole) {
+        try (Transaction tx = this.db.beginTx();
+             ResourceIterator<Node> found = this.db.findNodes(LABEL, PROPERTY, this.keyType.value(this.nextNode() % this.distinctValues))) {
+            while (found.hasNext()) {
+                blackhole.consume(found.next());
+            }
+            tx.success();
+        }
+    }
+
+    private int nextNode() {
+        if (++this.next == this.nodes) this.next = 0;
+        return this.next;
+    }
+}
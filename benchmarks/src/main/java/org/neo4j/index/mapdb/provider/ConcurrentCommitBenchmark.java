@@ -0,0 +1,118 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.mapdb.MapDbIndexSettings;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transactions committed to one {@link MapDbIndex} by 1 to 8 threads at once, each adding {@value #NODES_PER_TRANSACTION}
+ * new nodes; the score counts nodes, so it grows with the thread count as far as committers do not wait for each other.
+ * <p>
+ * Writers wait for each other in the store commit, which blocks all writes to the store while it runs, in a group commit
+ * that covers them, and on the tree node they change, which all of them share with few distinct values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ConcurrentCommitBenchmark {
+
+    private static final long[] LABELS = {1};
+    private static final int PROPERTY_KEY = 2;
+    private static final int NODES_PER_TRANSACTION = 16;
+
+    @Param({"STRING"})
+    public KeyType keyType;
+
+    @Param({"16", "100000"})
+    public int distinctValues;
+
+    /**
+     * Milliseconds a commit waits for concurrent commits to join it.
+     */
+    @Param({"0", "1"})
+    public int groupCommitWindow;
+
+    private File directory;
+    private MapDbIndexStore store;
+    private MapDbIndex index;
+    private final AtomicLong nextNodeId = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("mapdb-concurrent-commit-benchmark").toFile();
+        this.store = new MapDbIndexStore(this.directory, new Config(MapUtil.stringMap(
+                MapDbIndexSettings.group_commit_window.name(), String.valueOf(this.groupCommitWindow))));
+        this.index = new MapDbIndex(this.store, new IndexConfiguration(false), 1 << 19, true);
+        this.index.create();
+        this.index.close(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.store.delete();
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(NODES_PER_TRANSACTION)
+    public void oneThread() throws Exception {
+        this.commit();
+    }
+
+    @Benchmark
+    @Threads(2)
+    @OperationsPerInvocation(NODES_PER_TRANSACTION)
+    public void twoThreads() throws Exception {
+        this.commit();
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(NODES_PER_TRANSACTION)
+    public void fourThreads() throws Exception {
+        this.commit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(NODES_PER_TRANSACTION)
+    public void eightThreads() throws Exception {
+        this.commit();
+    }
+
+    private void commit() throws Exception {
+        final long firstNodeId = this.nextNodeId.getAndAdd(NODES_PER_TRANSACTION);
+        try (IndexUpdater updater = this.index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (long nodeId = firstNodeId; nodeId < firstNodeId + NODES_PER_TRANSACTION; nodeId++) {
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, this.keyType.value(nodeId % this.distinctValues), LABELS));
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.neo4j.index.mapdb.provider;
+
+/**
+ * Property value types the benchmarks index, value {@code i} of each type is distinct for distinct {@code i}.
+ */
+public enum KeyType {
+    INT {
+        @Override
+        public Object value(final long i) {
+            return (int) i;
+        }
+    },
+    LONG {
+        @Override
+        public Object value(final long i) {
+            return i;
+        }
+    },
+    STRING {
+        @Override
+        public Object value(final long i) {
+            return "value-" + i;
+        }
+    };
+
+    public abstract Object value(long i);
+}
@@ -0,0 +1,176 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Operations on an online {@link MapDbIndex}, called directly without the kernel.
+ * <p>
+ * The index starts with {@code nodes} nodes spread evenly over {@code distinctValues} values, so posting lists
+ * hold {@code nodes / distinctValues} node ids. Each update and lookup is one transaction or reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MapDbIndexBenchmark {
+
+    private static final long[] LABELS = {1};
+    private static final int PROPERTY_KEY = 2;
+    private static final int BATCH = 1000;
+
+    @Param({"INT", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"10", "1000", "100000"})
+    public int distinctValues;
+
+    @Param({"100000"})
+    public int nodes;
+
+    private File directory;
+    private MapDbIndexStore store;
+    private MapDbIndex index;
+    private int[] values;
+    private long nextNodeId;
+    private int next;
+    private IndexReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("mapdb-index-benchmark").toFile();
+        this.store = new MapDbIndexStore(this.directory);
+        this.index = new MapDbIndex(this.store, new IndexConfiguration(false), 1 << 19, true);
+        this.index.create();
+        this.values = new int[this.nodes];
+        for (int nodeId = 0; nodeId < this.nodes; nodeId++) {
+            this.values[nodeId] = nodeId % this.distinctValues;
+            this.index.add(nodeId, this.keyType.value(this.values[nodeId]));
+        }
+        this.index.close(true);
+        this.nextNodeId = this.nodes;
+    }
+
+    @Setup(Level.Iteration)
+    public void openReader() {
+        this.reader = this.index.newReader();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeReader() {
+        this.reader.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.store.delete();
+    }
+
+    /**
+     * Adds a new node, the index grows by one entry per call.
+     */
+    @Benchmark
+    public void insert() throws Exception {
+        final long nodeId = this.nextNodeId++;
+        try (IndexUpdater updater = this.index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, this.keyType.value(nodeId % this.distinctValues), LABELS));
+        }
+    }
+
+    /**
+     * Adds {@value #BATCH} new nodes in one transaction, as the kernel does when a transaction creates many nodes;
+     * the score counts nodes, not transactions.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertBatch() throws Exception {
+        try (IndexUpdater updater = this.index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int i = 0; i < BATCH; i++) {
+                final long nodeId = this.nextNodeId++;
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, this.keyType.value(nodeId % this.distinctValues), LABELS));
+            }
+        }
+    }
+
+    /**
+     * Moves an existing node to the next value.
+     */
+    @Benchmark
+    public void update() throws Exception {
+        final int nodeId = this.nextNode();
+        final int before = this.values[nodeId];
+        final int after = (before + 1) % this.distinctValues;
+        try (IndexUpdater updater = this.index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.change(nodeId, PROPERTY_KEY, this.keyType.value(before), LABELS,
+                    this.keyType.value(after), LABELS));
+        }
+        this.values[nodeId] = after;
+    }
+
+    /**
+     * Removes an existing node and adds it back in a second transaction, so the index keeps its size;
+     * subtract {@link #insert()} for the cost of the removal alone.
+     */
+    @Benchmark
+    public void removeAndAddBack() throws Exception {
+        final int nodeId = this.nextNode();
+        final PrimitiveLongSet nodeIds = Primitive.longSet();
+        nodeIds.add(nodeId);
+        try (IndexUpdater updater = this.index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.remove(nodeIds);
+        }
+        try (IndexUpdater updater = this.index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, this.keyType.value(this.values[nodeId]), LABELS));
+        }
+    }
+
+    /**
+     * Looks up a value in a reader opened for the whole iteration and reads all of its node ids.
+     */
+    @Benchmark
+    public void lookup(final Blackhole blackhole) {
+        final PrimitiveLongIterator nodeIds = this.reader.lookup(this.keyType.value(this.nextNode() % this.distinctValues));
+        while (nodeIds.hasNext()) {
+            blackhole.consume(nodeIds.next());
+        }
+    }
+
+    @Benchmark
+    public void newReader(final Blackhole blackhole) {
+        final IndexReader reader = this.index.newReader();
+        blackhole.consume(reader);
+        reader.close();
+    }
+
+    private int nextNode() {
+        if (++this.next == this.nodes) this.next = 0;
+        return this.next;
+    }
+}
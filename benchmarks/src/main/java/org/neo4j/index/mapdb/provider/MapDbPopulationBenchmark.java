@@ -0,0 +1,70 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Populates a {@link MapDbIndex} from scratch, the way the kernel does when an index is created over existing nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class MapDbPopulationBenchmark {
+
+    @Param({"INT", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"10", "100000"})
+    public int distinctValues;
+
+    @Param({"1000000"})
+    public int nodes;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File directory;
+    private MapDbIndexStore store;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("mapdb-population-benchmark").toFile();
+        this.store = new MapDbIndexStore(this.directory);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        this.store.delete();
+    }
+
+    @Benchmark
+    public MapDbIndex populate() throws Exception {
+        final MapDbIndex index = new MapDbIndex(this.store, new IndexConfiguration(false), 1 << 19, true,
+                MapDbIndex.DEFAULT_POSTING_LIST_CACHE_SIZE, MapDbIndex.DEFAULT_POSTING_LIST_BLOCK_SIZE, this.threads);
+        index.create();
+        for (long nodeId = 0; nodeId < this.nodes; nodeId++) {
+            index.add(nodeId, this.keyType.value(nodeId % this.distinctValues));
+        }
+        index.close(true);
+        return index;
+    }
+}
@@ -0,0 +1,79 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Puts and gets on a bare MapDB tree of posting lists in memory, with the index's serializers or MapDB's defaults.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class RawMapDbBenchmark {
+
+    @Param({"INT", "LONG", "STRING"})
+    public KeyType keyType;
+
+    @Param({"true", "false"})
+    public boolean specializedSerializers;
+
+    @Param({"100000"})
+    public int keys;
+
+    private DB db;
+    private BTreeMap<byte[], long[]> tree;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.db = DBMaker.newMemoryDB().transactionDisable().make();
+        DB.BTreeMapMaker maker = this.db.createTreeMap("index").comparator(PropertyKeyComparator.INSTANCE);
+        if (this.specializedSerializers) {
+            maker = maker.keySerializer(PropertyKeySerializer.INSTANCE).valueSerializer(PostingListSerializer.INSTANCE);
+        }
+        this.tree = maker.make();
+        for (int i = 0; i < this.keys; i++) {
+            this.tree.put(PropertyKeys.encode(this.keyType.value(i)), new long[]{i, i + 1L, i + 2L});
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.db.close();
+    }
+
+    @Benchmark
+    public long[] put() {
+        final int i = this.nextKey();
+        return this.tree.put(PropertyKeys.encode(this.keyType.value(i)), new long[]{i, i + 1L, i + 3L});
+    }
+
+    @Benchmark
+    public long[] get() {
+        return this.tree.get(PropertyKeys.encode(this.keyType.value(this.nextKey())));
+    }
+
+    private int nextKey() {
+        if (++this.next == this.keys) this.next = 0;
+        return this.next;
+    }
+}
@@ -5,6 +5,7 @@ import org.neo4j.kernel.api.index.SchemaIndexProvider;
 import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.extension.KernelExtensionFactory;
 import org.neo4j.kernel.lifecycle.Lifecycle;
+import org.neo4j.kernel.logging.Logging;
 
 @Service.Implementation(KernelExtensionFactory.class)
 public class MapDbIndexProviderFactory extends KernelExtensionFactory<MapDbIndexProviderFactory.Dependencies> {
@@ -17,6 +18,8 @@ public class MapDbIndexProviderFactory extends KernelExtensionFactory<MapDbIndex
 
     public interface Dependencies {
         Config getConfig();
+
+        Logging getLogging();
     }
 
     public MapDbIndexProviderFactory() {
@@ -28,9 +31,15 @@ public class MapDbIndexProviderFactory extends KernelExtensionFactory<MapDbIndex
         this.singleProvider = singleProvider;
     }
 
+    @Override
+    public Class<?> getSettingsClass() {
+        return MapDbIndexSettings.class;
+    }
+
     @Override
     public Lifecycle newKernelExtension(Dependencies dependencies) throws Throwable {
-        return hasSingleProvider() ? singleProvider : new MapDbSchemaIndexProvider(dependencies.getConfig());
+        return hasSingleProvider() ? singleProvider : new MapDbSchemaIndexProvider(dependencies.getConfig(),
+                dependencies.getLogging().getMessagesLog(MapDbSchemaIndexProvider.class));
     }
 
     private boolean hasSingleProvider() {
@@ -0,0 +1,101 @@
+package org.neo4j.index.mapdb;
+
+import static org.neo4j.helpers.Settings.BOOLEAN;
+import static org.neo4j.helpers.Settings.DOUBLE;
+import static org.neo4j.helpers.Settings.FALSE;
+import static org.neo4j.helpers.Settings.INTEGER;
+import static org.neo4j.helpers.Settings.TRUE;
+import static org.neo4j.helpers.Settings.min;
+import static org.neo4j.helpers.Settings.options;
+import static org.neo4j.helpers.Settings.range;
+import static org.neo4j.helpers.Settings.setting;
+
+import org.neo4j.graphdb.config.Setting;
+import org.neo4j.graphdb.factory.Description;
+
+/**
+ * Settings of the MapDB index provider, read from the database configuration.
+ */
+// the constraints are passed to Settings.setting as generic varargs
+@SuppressWarnings("unchecked")
+public class MapDbIndexSettings {
+
+    public enum Storage {
+        /** a file per index, read and written through random access files */
+        file,
+        /** a file per index, memory mapped */
+        mmap,
+        /** off-heap direct memory, indexes are repopulated after a restart */
+        direct,
+        /** on the Java heap, indexes are repopulated after a restart */
+        heap
+    }
+
+    public enum CacheType {
+        /** MapDB's default fixed size hash table */
+        fixed,
+        hard,
+        lru,
+        weak,
+        soft,
+        none
+    }
+
+    @Description("Where the MapDB index stores keep their data.")
+    public static final Setting<Storage> storage = setting("mapdb_index.storage", options(Storage.class), Storage.file.name());
+
+    @Description("Type of the instance cache of each MapDB index store.")
+    public static final Setting<CacheType> cache_type = setting("mapdb_index.cache_type", options(CacheType.class), CacheType.fixed.name());
+
+    @Description("Number of instances in the cache of each MapDB index store, used by the fixed, hard and lru caches.")
+    public static final Setting<Integer> cache_size = setting("mapdb_index.cache_size", INTEGER, "32768", min(1));
+
+    @Description("Whether to compress the records of the MapDB index stores.")
+    public static final Setting<Boolean> compression = setting("mapdb_index.compression", BOOLEAN, TRUE);
+
+    @Description("Whether to write records to the MapDB index stores from a background thread.")
+    public static final Setting<Boolean> async_write = setting("mapdb_index.async_write", BOOLEAN, FALSE);
+
+    @Description("Number of records the background writer queues before writers block.")
+    public static final Setting<Integer> async_write_queue_size = setting("mapdb_index.async_write_queue_size", INTEGER, "32000", min(1));
+
+    @Description("Milliseconds the background writer waits to collect records before writing them.")
+    public static final Setting<Integer> async_write_flush_delay = setting("mapdb_index.async_write_flush_delay", INTEGER, "1", min(0));
+
+    @Description("Milliseconds a commit of an index store waits for concurrent commit requests to join it, 0 to commit right away. " +
+            "Requests arriving while a commit runs are always joined into the next one.")
+    public static final Setting<Integer> group_commit_window = setting("mapdb_index.group_commit_window", INTEGER, "0", min(0));
+
+    @Description("Number of commit requests after which a commit stops waiting for more.")
+    public static final Setting<Integer> group_commit_max_batch = setting("mapdb_index.group_commit_max_batch", INTEGER, "64", min(1));
+
+    @Description("Number of entries an index population holds in memory before spilling a sorted run to disk.")
+    public static final Setting<Integer> population_buffer_size = setting("mapdb_index.population_buffer_size", INTEGER, String.valueOf(1 << 19), min(1));
+
+    @Description("Number of threads an index population sorts its entries with, partitioned by value. " +
+            "With 1 the entries are sorted in the thread scanning the store.")
+    public static final Setting<Integer> population_threads = setting("mapdb_index.population_threads", INTEGER,
+            String.valueOf(Runtime.getRuntime().availableProcessors()), min(1));
+
+    @Description("Number of node ids the decoded posting lists cached for the readers of each index may hold in all, 0 to disable the cache.")
+    public static final Setting<Integer> posting_list_cache_size = setting("mapdb_index.posting_list_cache_size", INTEGER, String.valueOf(1 << 20), min(0));
+
+    @Description("Number of node ids after which a posting list is split into another block, only the blocks an update touches are rewritten.")
+    public static final Setting<Integer> posting_list_block_size = setting("mapdb_index.posting_list_block_size", INTEGER, "1024", min(1));
+
+    @Description("Whether to keep a node id to value tree per index, so removing nodes does not scan the whole index.")
+    public static final Setting<Boolean> node_values = setting("mapdb_index.node_values", BOOLEAN, TRUE);
+
+    @Description("Milliseconds between two rounds of the background compaction of the index stores, 0 to disable it. " +
+            "A store is compacted in one step, commits to it wait until it is done.")
+    public static final Setting<Integer> compaction_interval = setting("mapdb_index.compaction_interval", INTEGER, "60000", min(0));
+
+    @Description("Part of an index store that must be free space left by rewritten and deleted records for it to be compacted.")
+    public static final Setting<Double> compaction_dead_space_ratio = setting("mapdb_index.compaction_dead_space_ratio", DOUBLE, "0.5", range(0.0, 1.0));
+
+    @Description("Milliseconds an index store must not have committed for it to be compacted, so stores under write load are left alone.")
+    public static final Setting<Integer> compaction_idle_time = setting("mapdb_index.compaction_idle_time", INTEGER, "5000", min(0));
+
+    @Description("Part of the time the background compaction may spend compacting, it pauses after each store to keep to it.")
+    public static final Setting<Double> compaction_duty_cycle = setting("mapdb_index.compaction_duty_cycle", DOUBLE, "0.1", range(0.01, 1.0));
+}
@@ -6,12 +6,19 @@ import static org.neo4j.kernel.impl.util.StringLogger.DEV_NULL;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
 import java.util.Map;
 
-import org.mapdb.BTreeMap;
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.neo4j.index.mapdb.provider.IndexCatalog;
+import org.neo4j.index.mapdb.provider.IndexDump;
 import org.neo4j.index.mapdb.provider.MapDbIndex;
+import org.neo4j.index.mapdb.provider.MapDbIndexStore;
+import org.neo4j.index.mapdb.provider.StoreCompactor;
 import org.neo4j.io.fs.FileSystemAbstraction;
 import org.neo4j.io.pagecache.PageCache;
 import org.neo4j.kernel.api.index.IndexAccessor;
@@ -28,6 +35,7 @@ import org.neo4j.kernel.impl.storemigration.SchemaIndexMigrator;
 import org.neo4j.kernel.impl.storemigration.StoreMigrationParticipant;
 import org.neo4j.kernel.impl.storemigration.UpgradableDatabase;
 import org.neo4j.kernel.impl.util.CopyOnWriteHashMap;
+import org.neo4j.kernel.impl.util.StringLogger;
 import org.neo4j.kernel.monitoring.Monitors;
 
 /**
@@ -41,25 +49,41 @@ public class MapDbSchemaIndexProvider extends SchemaIndexProvider {
     static {
         PRIORITY = 2;
     }
+    // the single store all indexes shared before each index got a store of its own
+    private static final String LEGACY_STORE_FILE_NAME = "mapdb-index-tree.db";
+    // dumps named <index id>.dump placed here are restored into the stores of their indexes at startup
+    private static final String RESTORE_DIRECTORY_NAME = "restore";
+    static final String DUMP_SUFFIX = ".dump";
     // todo this is visibility isolation semantics for the in-memory index
     private final Map<Long, MapDbIndex> indexes = new CopyOnWriteHashMap<>();
-    private final DB db;
+    private final Map<Long, MapDbIndexStore> stores = new CopyOnWriteHashMap<>();
+    private final File directory;
+    private final Config config;
+    private final StringLogger log;
+    private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    private StoreCompactor compactor;
 
     public MapDbSchemaIndexProvider(final Config config) {
-        super(PROVIDER_DESCRIPTOR, PRIORITY);
-        this.db = DBMaker
-                .newFileDB(this.getIndexFile(config))
-                .compressionEnable()
-                .snapshotEnable()
-                .asyncWriteFlushDelay(1)
-                .closeOnJvmShutdown()
-                .make();
+        this(config, DEV_NULL);
+    }
 
+    public MapDbSchemaIndexProvider(final Config config, final StringLogger log) {
+        super(PROVIDER_DESCRIPTOR, PRIORITY);
+        this.config = config;
+        this.log = log;
+        this.directory = this.getDirectory(config);
     }
 
-    private File getIndexFile(final Config config) {
-        final File directory = this.getDirectory(config);
-        return new File(directory, "mapdb-index-tree.db");
+    /**
+     * @return the store of the index, in a directory named after the index id; the {@link DB} is opened on first use
+     */
+    private synchronized MapDbIndexStore getStore(final long indexId) {
+        MapDbIndexStore store = this.stores.get(indexId);
+        if (store == null) {
+            store = new MapDbIndexStore(new File(this.directory, String.valueOf(indexId)), this.config);
+            this.stores.put(indexId, store);
+        }
+        return store;
     }
 
     private File getDirectory(final Config config) {
@@ -70,30 +94,181 @@ public class MapDbSchemaIndexProvider extends SchemaIndexProvider {
         throw new RuntimeException("Error creating directory " + indexDirectory + " for index " + PROVIDER_DESCRIPTOR);
     }
 
+    @Override
+    public void init() throws Throwable {
+        super.init();
+        this.restoreDumps();
+    }
+
+    @Override
+    public void start() throws Throwable {
+        super.start();
+        // indexes in the shared store have no catalog to be reattached from, the kernel repopulates them into their own stores
+        for (final String suffix : new String[]{"", ".p", ".t"}) {
+            final File legacy = new File(this.directory, LEGACY_STORE_FILE_NAME + suffix);
+            if (legacy.delete()) {
+                this.log.info("Deleted " + legacy + " of the store all indexes shared before, they are repopulated");
+            }
+        }
+        final int compactionInterval = this.config.get(MapDbIndexSettings.compaction_interval);
+        if (compactionInterval > 0) {
+            // the map is copied on write, each round iterates the indexes there are by then
+            final Iterable<MapDbIndex> indexes = new Iterable<MapDbIndex>() {
+                @Override
+                public Iterator<MapDbIndex> iterator() {
+                    return MapDbSchemaIndexProvider.this.indexes.values().iterator();
+                }
+            };
+            this.compactor = new StoreCompactor(indexes, compactionInterval,
+                    this.config.get(MapDbIndexSettings.compaction_dead_space_ratio),
+                    this.config.get(MapDbIndexSettings.compaction_idle_time),
+                    this.config.get(MapDbIndexSettings.compaction_duty_cycle));
+            this.compactor.start();
+        }
+    }
+
+    /**
+     * Restores the dumps in the restore directory before the kernel asks for the state of the indexes, so it finds
+     * them online and reattaches them. A dump is deleted once it has been tried. If restoring it fails, the failure
+     * is logged and the store it was restored into is deleted, so the kernel repopulates the index.
+     */
+    private void restoreDumps() throws IOException {
+        final File[] dumps = this.getRestoreDirectory().listFiles();
+        if (dumps == null) return;
+        for (final File dump : dumps) {
+            final String name = dump.getName();
+            if (!name.endsWith(DUMP_SUFFIX)) continue;
+            final long indexId;
+            try {
+                indexId = Long.parseLong(name.substring(0, name.length() - DUMP_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            try {
+                this.restoreIndex(indexId, dump);
+            } catch (IOException | RuntimeException e) {
+                this.log.warn("Could not restore index " + indexId + " from " + dump + ", it will be repopulated", e);
+                this.discard(indexId);
+            }
+            if (!dump.delete()) throw new IOException("Error deleting index dump " + dump);
+        }
+    }
+
+    /**
+     * Deletes the store of an index along with whatever the provider holds of it.
+     */
+    private synchronized void discard(final long indexId) {
+        this.getStore(indexId).delete();
+        this.stores.remove(indexId);
+        this.indexes.remove(indexId);
+        this.unregisterMetrics(indexId);
+    }
+
+    File getRestoreDirectory() {
+        return new File(this.directory, RESTORE_DIRECTORY_NAME);
+    }
+
+    /**
+     * Writes a dump of an online index, from a snapshot so it stays online meanwhile.
+     */
+    public void dumpIndex(final long indexId, final File file) throws IOException {
+        final MapDbIndex index = this.indexes.get(indexId);
+        if (index == null || index.getState() != InternalIndexState.ONLINE)
+            throw new IllegalStateException("Index " + indexId + " not online");
+        IndexDump.write(index, file);
+    }
+
+    /**
+     * Replaces the contents of an index with a dump and marks it online; the index must not be in use.
+     */
+    public void restoreIndex(final long indexId, final File file) throws IOException {
+        final IndexConfiguration config = IndexDump.readConfiguration(file);
+        MapDbIndex index = this.indexes.get(indexId);
+        if (index == null || index.isUnique() != config.isUnique()) index = this.newIndex(indexId, config);
+        IndexDump.restore(file, index);
+    }
+
     @Override
     public void shutdown() throws Throwable {
         super.shutdown();
-        this.db.commit();
-        this.db.close();
+        if (this.compactor != null) {
+            this.compactor.close();
+            this.compactor = null;
+        }
+        for (final MapDbIndexStore store : this.stores.values()) {
+            store.close();
+        }
+        for (final Long indexId : this.indexes.keySet()) {
+            this.unregisterMetrics(indexId);
+        }
+    }
+
+    /**
+     * Registers the metrics of the index as an MXBean, in place of those of an earlier population of the same index.
+     * The name includes the provider directory, so databases in the same JVM do not clash.
+     */
+    private synchronized void registerMetrics(final long indexId, final MapDbIndex index) {
+        try {
+            final ObjectName name = this.metricsName(indexId);
+            if (this.mbeanServer.isRegistered(name)) this.mbeanServer.unregisterMBean(name);
+            this.mbeanServer.registerMBean(index.getMetrics(), name);
+        } catch (JMException e) {
+            throw new RuntimeException("Error registering metrics of index " + indexId, e);
+        }
+    }
+
+    private synchronized void unregisterMetrics(final long indexId) {
+        try {
+            final ObjectName name = this.metricsName(indexId);
+            if (this.mbeanServer.isRegistered(name)) this.mbeanServer.unregisterMBean(name);
+        } catch (JMException e) {
+            throw new RuntimeException("Error unregistering metrics of index " + indexId, e);
+        }
+    }
+
+    ObjectName metricsName(final long indexId) throws JMException {
+        return new ObjectName("org.neo4j.index.mapdb:type=IndexMetrics,directory="
+                + ObjectName.quote(this.directory.getAbsolutePath()) + ",index=" + indexId);
+    }
+
+    /**
+     * @return the catalog of the index, {@code null} if there is no store to read it from
+     */
+    private IndexCatalog getCatalog(final long indexId) {
+        final MapDbIndexStore store = this.getStore(indexId);
+        return store.exists() ? store.getCatalog() : null;
     }
 
     @Override
     public String getPopulationFailure(final long indexId) throws IllegalStateException {
-        throw new UnsupportedOperationException(); // TODO
+        final IndexCatalog catalog = this.getCatalog(indexId);
+        final String failure = catalog == null ? null : catalog.getFailure();
+        if (failure == null) throw new IllegalStateException("Index " + indexId + " has not failed");
+        return failure;
     }
 
+    /**
+     * An index left online by an earlier run is reattached to the trees in its store.
+     */
     @Override
     public IndexAccessor getOnlineAccessor(final long indexId, final IndexConfiguration config, final IndexSamplingConfig samplingConfig) throws IOException {
-        final MapDbIndex index = this.indexes.get(indexId);
+        MapDbIndex index = this.indexes.get(indexId);
+        if (index == null && this.getInitialState(indexId) == InternalIndexState.ONLINE) {
+            index = this.newIndex(indexId, config);
+        }
         if (index == null || index.getState() != InternalIndexState.ONLINE)
             throw new IllegalStateException("Index " + indexId + " not online yet");
         return index;
     }
 
+    /**
+     * Reads the state from the catalog in the store of the index, which takes the same time however large it is.
+     * Stores kept in memory are gone after a restart, their indexes are repopulated.
+     */
     @Override
     public InternalIndexState getInitialState(final long indexId) {
-        final MapDbIndex index = this.indexes.get(indexId);
-        return index != null ? index.getState() : InternalIndexState.POPULATING;
+        final IndexCatalog catalog = this.getCatalog(indexId);
+        return catalog != null ? catalog.getState() : InternalIndexState.POPULATING;
     }
 
     @Override public StoreMigrationParticipant storeMigrationParticipant(final FileSystemAbstraction fs, final UpgradableDatabase upgradableDatabase) {
@@ -112,9 +287,33 @@ public class MapDbSchemaIndexProvider extends SchemaIndexProvider {
     @Override
     public IndexPopulator getPopulator(final long indexId, final IndexDescriptor descriptor, final IndexConfiguration config,
             final IndexSamplingConfig samplingConfig) {
-        final BTreeMap<Object,long[]> map = this.db.getTreeMap(String.valueOf(indexId));
-        final MapDbIndex index = new MapDbIndex(map,this.db);
+        return this.newIndex(indexId, config);
+    }
+
+    /**
+     * A dropped index is forgotten along with its store and metrics, unless it has been replaced by a newer one meanwhile.
+     */
+    private MapDbIndex newIndex(final long indexId, final IndexConfiguration config) {
+        final MapDbIndex index = new MapDbIndex(this.getStore(indexId), config,
+                this.config.get(MapDbIndexSettings.population_buffer_size), this.config.get(MapDbIndexSettings.node_values),
+                this.config.get(MapDbIndexSettings.posting_list_cache_size), this.config.get(MapDbIndexSettings.posting_list_block_size),
+                this.config.get(MapDbIndexSettings.population_threads)) {
+            @Override
+            public void drop() {
+                super.drop();
+                MapDbSchemaIndexProvider.this.dropped(indexId, this);
+            }
+        };
         this.indexes.put(indexId, index);
+        this.registerMetrics(indexId, index);
         return index;
     }
+
+    private synchronized void dropped(final long indexId, final MapDbIndex index) {
+        if (this.indexes.get(indexId) != index) return;
+        this.indexes.remove(indexId);
+        // the store has been deleted with the index, recreating the index opens a new one
+        this.stores.remove(indexId);
+        this.unregisterMetrics(indexId);
+    }
 }
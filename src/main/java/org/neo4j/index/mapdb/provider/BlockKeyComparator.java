@@ -0,0 +1,36 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.mapdb.Fun;
+
+/**
+ * Orders the (value, blockId) keys of posting list blocks by value key with {@link PropertyKeyComparator},
+ * then by block id, so the blocks of a value are next to each other in node id order.
+ */
+public final class BlockKeyComparator implements Comparator<Fun.Tuple2<byte[], Long>>, Serializable {
+
+    public static final BlockKeyComparator INSTANCE = new BlockKeyComparator();
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int compare(final Fun.Tuple2<byte[], Long> first, final Fun.Tuple2<byte[], Long> second) {
+        final int result = PropertyKeyComparator.INSTANCE.compare(first.a, second.a);
+        return result != 0 ? result : Long.compare(first.b, second.b);
+    }
+
+    /**
+     * MapDB stores the comparator with the tree and checks it against the one of the key serializer when reopening.
+     */
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof BlockKeyComparator;
+    }
+
+    @Override
+    public int hashCode() {
+        return BlockKeyComparator.class.hashCode();
+    }
+}
@@ -0,0 +1,54 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.Fun;
+
+/**
+ * Serializes the (value, blockId) keys of a B-tree node: the value keys with {@link PropertyKeySerializer}, where
+ * the repeated value key of consecutive blocks takes two bytes, then the block ids as deltas to the previous one.
+ */
+public final class BlockKeySerializer extends BTreeKeySerializer<Fun.Tuple2<byte[], Long>> implements Serializable {
+
+    public static final BlockKeySerializer INSTANCE = new BlockKeySerializer();
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void serialize(final DataOutput out, final int start, final int end, final Object[] keys) throws IOException {
+        final Object[] values = new Object[keys.length];
+        for (int i = start; i < end; i++) {
+            values[i] = ((Fun.Tuple2<byte[], Long>) keys[i]).a;
+        }
+        PropertyKeySerializer.INSTANCE.serialize(out, start, end, values);
+        long previous = 0;
+        for (int i = start; i < end; i++) {
+            final long blockId = ((Fun.Tuple2<byte[], Long>) keys[i]).b;
+            VarLongs.write(out, VarLongs.zigZag(blockId - previous));
+            previous = blockId;
+        }
+    }
+
+    @Override
+    public Object[] deserialize(final DataInput in, final int start, final int end, final int size) throws IOException {
+        final Object[] keys = PropertyKeySerializer.INSTANCE.deserialize(in, start, end, size);
+        long previous = 0;
+        for (int i = start; i < end; i++) {
+            previous += VarLongs.unZigZag(VarLongs.read(in));
+            keys[i] = Fun.t2(keys[i], previous);
+        }
+        return keys;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Comparator<Fun.Tuple2<byte[], Long>> getComparator() {
+        return BlockKeyComparator.INSTANCE;
+    }
+}
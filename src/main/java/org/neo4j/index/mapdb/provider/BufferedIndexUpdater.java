@@ -0,0 +1,201 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.mapdb.Fun;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.kernel.api.exceptions.index.IndexCapacityExceededException;
+import org.neo4j.kernel.api.index.IndexEntryConflictException;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.api.index.Reservation;
+
+/**
+ * Buffers the updates of one transaction and applies them to the index when closed.
+ * <p>
+ * An add and a remove of the same node and value cancel out. The remaining changes are grouped by the key of
+ * the value, so equal numbers of different types end up together. They are applied in key order, and each
+ * posting list is read and written once, however many of its nodes changed.
+ * If a unique index reports a conflict, the values applied before are reverted and nothing else is applied.
+ * <p>
+ * Updates replayed in recovery are idempotent: adding a node that is already indexed with the value and removing one
+ * that is not change nothing, and a node added with a new value is first removed from the value it is still
+ * indexed with, found in the node values tree. So recovery only touches the nodes of the replayed transactions.
+ */
+class BufferedIndexUpdater implements IndexUpdater {
+
+    private static final byte[] REMOVED = new byte[0];
+
+    private final MapDbIndex index;
+
+    private final TreeMap<byte[], PendingChanges> changes = new TreeMap<>(PropertyKeyComparator.INSTANCE);
+
+    /**
+     * Key of the value each changed node ends up with, or {@link #REMOVED}.
+     */
+    private final TreeMap<Long, byte[]> nodeValues = new TreeMap<>();
+
+    /**
+     * Whether the updates are replayed in recovery and may already be in the index.
+     */
+    private final boolean recovery;
+
+    BufferedIndexUpdater(final MapDbIndex index, final boolean recovery) {
+        this.index = index;
+        this.recovery = recovery;
+    }
+
+    @Override
+    public Reservation validate(final Iterable<NodePropertyUpdate> updates) throws IOException, IndexCapacityExceededException {
+        return this.index.validate(updates);
+    }
+
+    @Override
+    public void process(final NodePropertyUpdate update) {
+        switch (update.getUpdateMode()) {
+        case ADDED:
+            this.added(update.getNodeId(), update.getValueAfter());
+            break;
+        case CHANGED:
+            this.removed(update.getNodeId(), update.getValueBefore());
+            this.added(update.getNodeId(), update.getValueAfter());
+            break;
+        case REMOVED:
+            this.removed(update.getNodeId(), update.getValueBefore());
+            break;
+        default:
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void added(final long nodeId, final Object value) {
+        final byte[] key = PropertyKeys.encode(value);
+        if (this.recovery && !this.nodeValues.containsKey(nodeId)) {
+            // the add may be replayed for a node whose earlier value was applied before the crash
+            final byte[] indexed = this.index.nodeValue(nodeId);
+            if (indexed != null && !Arrays.equals(indexed, key)) this.removed(nodeId, indexed, PropertyKeys.decode(indexed));
+        }
+        final PendingChanges pending = this.pending(key, value);
+        if (!pending.removed.remove(nodeId)) pending.added.add(nodeId);
+        this.nodeValues.put(nodeId, key);
+    }
+
+    private void removed(final long nodeId, final Object value) {
+        this.removed(nodeId, PropertyKeys.encode(value), value);
+    }
+
+    private void removed(final long nodeId, final byte[] key, final Object value) {
+        final PendingChanges pending = this.pending(key, value);
+        if (!pending.added.remove(nodeId)) pending.removed.add(nodeId);
+        this.nodeValues.put(nodeId, REMOVED);
+    }
+
+    private PendingChanges pending(final byte[] key, final Object value) {
+        PendingChanges pending = this.changes.get(key);
+        if (pending == null) {
+            pending = new PendingChanges(value);
+            this.changes.put(key, pending);
+        }
+        return pending;
+    }
+
+    /**
+     * Removes nodes from the index directly, after applying what has been buffered so far.
+     */
+    @Override
+    public void remove(final PrimitiveLongSet nodeIds) throws IOException {
+        try {
+            this.apply();
+        } catch (IndexEntryConflictException e) {
+            throw new IOException("Conflicting entries in unique index", e);
+        }
+        this.index.remove(nodeIds);
+    }
+
+    @Override
+    public void close() throws IOException, IndexEntryConflictException {
+        try {
+            this.apply();
+        } finally {
+            this.index.close();
+        }
+    }
+
+    private void apply() throws IndexEntryConflictException {
+        if (this.changes.isEmpty() && this.nodeValues.isEmpty()) return;
+        final long start = System.nanoTime();
+        // readers snapshot the index before or after the whole transaction
+        this.index.beginWrite();
+        try {
+            final List<Fun.Tuple2<byte[], PostingTree.Change>> applied = new ArrayList<>();
+            for (final Map.Entry<byte[], PendingChanges> entry : this.changes.entrySet()) {
+                final PendingChanges pending = entry.getValue();
+                if (pending.added.isEmpty() && pending.removed.isEmpty()) continue;
+                final PostingTree.Change change;
+                try {
+                    change = this.index.update(entry.getKey(), pending.value, sorted(pending.added), sorted(pending.removed));
+                } catch (IndexEntryConflictException e) {
+                    this.revert(applied);
+                    throw e;
+                }
+                if (change != null) applied.add(Fun.t2(entry.getKey(), change));
+            }
+            long entries = 0;
+            long distinctValues = 0;
+            for (final Fun.Tuple2<byte[], PostingTree.Change> change : applied) {
+                entries += change.b.entries;
+                distinctValues += change.b.values;
+            }
+            this.index.counted(entries, distinctValues);
+            for (final Map.Entry<Long, byte[]> entry : this.nodeValues.entrySet()) {
+                final byte[] value = entry.getValue();
+                this.index.updateNodeValue(entry.getKey(), value == REMOVED ? null : value);
+            }
+        } finally {
+            this.index.endWrite();
+        }
+        this.changes.clear();
+        this.nodeValues.clear();
+        this.index.getMetrics().process.recordSince(start);
+    }
+
+    /**
+     * Undoes what the updates applied so far actually changed, an add of a node that was already indexed with the
+     * value is not undone by removing it.
+     */
+    private void revert(final List<Fun.Tuple2<byte[], PostingTree.Change>> applied) throws IndexEntryConflictException {
+        for (int i = applied.size() - 1; i >= 0; i--) {
+            final Fun.Tuple2<byte[], PostingTree.Change> change = applied.get(i);
+            this.index.update(change.a, this.changes.get(change.a).value, change.b.deleted, change.b.inserted);
+        }
+        this.changes.clear();
+        this.nodeValues.clear();
+    }
+
+    private static long[] sorted(final PrimitiveLongSet nodeIds) {
+        if (nodeIds.isEmpty()) return PostingLists.EMPTY;
+        final long[] result = PrimitiveLongCollections.asArray(nodeIds.iterator());
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static final class PendingChanges {
+        /**
+         * The first value changed with this key, reported on a conflict.
+         */
+        private final Object value;
+        private final PrimitiveLongSet added = Primitive.longSet();
+        private final PrimitiveLongSet removed = Primitive.longSet();
+
+        PendingChanges(final Object value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces concurrent commit requests of a store into one commit.
+ * <p>
+ * The first caller becomes the leader of a batch. It optionally waits up to {@code window} for more requests,
+ * then commits once for all requests that arrived so far. Callers arriving during that commit wait and are
+ * covered by the next one. A caller returns once a commit that started after its request has completed.
+ */
+final class GroupCommit {
+
+    private final Runnable commit;
+
+    private final long windowNanos;
+
+    private final int maxBatchSize;
+
+    private long requested;
+
+    private long completed;
+
+    private boolean committing;
+
+    private long commits;
+
+    private long totalCommitNanos;
+
+    private long lastCommitNanos;
+
+    private long maxCommitNanos;
+
+    private int lastBatchSize;
+
+    private int maxBatchSeen;
+
+    /**
+     * @param window how long a leader waits for more requests, 0 to commit right away
+     * @param maxBatchSize number of requests after which a leader stops waiting
+     */
+    GroupCommit(final Runnable commit, final long window, final TimeUnit unit, final int maxBatchSize) {
+        this.commit = commit;
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    void commit() {
+        final long ticket;
+        boolean interrupted = false;
+        synchronized (this) {
+            ticket = ++this.requested;
+            if (this.committing) this.notifyAll();
+            while (this.completed < ticket && this.committing) {
+                interrupted |= this.await(0);
+            }
+            if (this.completed >= ticket) {
+                if (interrupted) Thread.currentThread().interrupt();
+                return;
+            }
+            this.committing = true;
+        }
+        long batchEnd = ticket;
+        long nanos = -1;
+        try {
+            synchronized (this) {
+                interrupted |= this.collect();
+                batchEnd = this.requested;
+            }
+            final long start = System.nanoTime();
+            this.commit.run();
+            nanos = System.nanoTime() - start;
+        } finally {
+            synchronized (this) {
+                // after a failed commit the waiting callers elect a new leader and try again
+                if (nanos >= 0) this.committed(batchEnd, nanos);
+                this.committing = false;
+                this.notifyAll();
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return whether the thread was interrupted while waiting
+     */
+    private boolean collect() {
+        if (this.windowNanos <= 0) return false;
+        boolean interrupted = false;
+        final long deadline = System.nanoTime() + this.windowNanos;
+        while (this.requested - this.completed < this.maxBatchSize) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || interrupted) break;
+            interrupted = this.await(remaining);
+        }
+        return interrupted;
+    }
+
+    private void committed(final long batchEnd, final long nanos) {
+        final int batchSize = (int) (batchEnd - this.completed);
+        this.completed = batchEnd;
+        this.commits++;
+        this.lastBatchSize = batchSize;
+        this.maxBatchSeen = Math.max(this.maxBatchSeen, batchSize);
+        this.lastCommitNanos = nanos;
+        this.totalCommitNanos += nanos;
+        this.maxCommitNanos = Math.max(this.maxCommitNanos, nanos);
+    }
+
+    /**
+     * Waits on this monitor, the interrupt is returned so that the caller can restore it once it is done waiting.
+     */
+    private boolean await(final long nanos) {
+        try {
+            if (nanos <= 0) {
+                this.wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            }
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    synchronized long getRequestCount() {
+        return this.requested;
+    }
+
+    synchronized long getCommitCount() {
+        return this.commits;
+    }
+
+    synchronized double getAverageBatchSize() {
+        return this.commits == 0 ? 0 : (double) this.completed / this.commits;
+    }
+
+    synchronized int getLastBatchSize() {
+        return this.lastBatchSize;
+    }
+
+    synchronized int getMaxBatchSize() {
+        return this.maxBatchSeen;
+    }
+
+    synchronized long getLastCommitNanos() {
+        return this.lastCommitNanos;
+    }
+
+    synchronized long getMaxCommitNanos() {
+        return this.maxCommitNanos;
+    }
+
+    synchronized double getAverageCommitNanos() {
+        return this.commits == 0 ? 0 : (double) this.totalCommitNanos / this.commits;
+    }
+}
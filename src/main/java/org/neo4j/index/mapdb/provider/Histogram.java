@@ -0,0 +1,101 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, like latencies in nanoseconds or posting list sizes, in power-of-two buckets.
+ * <p>
+ * Recording a value is a few atomic updates and allocates nothing, so it can stay on the hot path.
+ * Percentiles are the upper bound of the bucket they fall into, at most twice the exact value.
+ * The getters map to the items of a composite value in JMX.
+ */
+public final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    void record(final long value) {
+        final long recorded = Math.max(0, value);
+        this.buckets.incrementAndGet(bucket(recorded));
+        this.count.incrementAndGet();
+        this.total.addAndGet(recorded);
+        long current = this.max.get();
+        while (recorded > current && !this.max.compareAndSet(current, recorded)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Records the nanoseconds elapsed since {@code start}, a value of {@link System#nanoTime()}.
+     */
+    void recordSince(final long start) {
+        this.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Bucket {@code b} holds the values below {@code 2^b} that are not in a lower bucket.
+     */
+    private static int bucket(final long value) {
+        return BUCKETS - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long upperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getTotal() {
+        return this.total.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        final long count = this.count.get();
+        return count == 0 ? 0 : (double) this.total.get() / count;
+    }
+
+    public long getMedian() {
+        return this.percentile(0.5);
+    }
+
+    public long getP90() {
+        return this.percentile(0.9);
+    }
+
+    public long getP99() {
+        return this.percentile(0.99);
+    }
+
+    public long getP999() {
+        return this.percentile(0.999);
+    }
+
+    /**
+     * @return upper bound of the smallest bucket that holds at least {@code quantile} of the values, capped at the max
+     */
+    long percentile(final double quantile) {
+        final long count = this.count.get();
+        if (count == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += this.buckets.get(bucket);
+            if (seen >= rank) return Math.min(upperBound(bucket), this.max.get());
+        }
+        return this.max.get();
+    }
+}
@@ -0,0 +1,90 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.Map;
+
+import org.mapdb.DB;
+import org.neo4j.kernel.api.index.InternalIndexState;
+
+/**
+ * State, failure and metadata of an index, kept in its store so a restart reattaches the index as it was left
+ * instead of repopulating it.
+ * <p>
+ * Reading the catalog touches a few small entries, however large the index is. A store without a catalog,
+ * or one written in another {@link #FORMAT}, reads as {@link InternalIndexState#POPULATING}.
+ */
+public final class IndexCatalog {
+
+    /**
+     * Version of the layout of the trees in the store, bumped whenever an older store cannot be read.
+     */
+    static final int FORMAT = 3;
+
+    private static final String CATALOG_TREE = "catalog";
+
+    private static final String FORMAT_KEY = "format";
+
+    private static final String STATE_KEY = "state";
+
+    private static final String FAILURE_KEY = "failure";
+
+    private static final String UNIQUE_KEY = "unique";
+
+    private static final String CREATED_KEY = "created";
+
+    private final Map<String, Object> entries;
+
+    IndexCatalog(final DB db) {
+        this.entries = db.createTreeMap(CATALOG_TREE).makeOrGet();
+    }
+
+    /**
+     * Records a new, empty index that is about to be populated.
+     */
+    void created(final boolean unique) {
+        this.entries.clear();
+        this.entries.put(FORMAT_KEY, FORMAT);
+        this.entries.put(UNIQUE_KEY, unique);
+        this.entries.put(CREATED_KEY, System.currentTimeMillis());
+        this.entries.put(STATE_KEY, InternalIndexState.POPULATING.name());
+    }
+
+    /**
+     * Records that the index was populated in this process, in the current format.
+     */
+    void online() {
+        this.entries.put(FORMAT_KEY, FORMAT);
+        this.entries.put(STATE_KEY, InternalIndexState.ONLINE.name());
+    }
+
+    void failed(final String failure) {
+        this.entries.put(FAILURE_KEY, failure);
+        this.entries.put(STATE_KEY, InternalIndexState.FAILED.name());
+    }
+
+    public InternalIndexState getState() {
+        final Object state = this.entries.get(STATE_KEY);
+        if (state == null || !Integer.valueOf(FORMAT).equals(this.entries.get(FORMAT_KEY))) {
+            return InternalIndexState.POPULATING;
+        }
+        return InternalIndexState.valueOf((String) state);
+    }
+
+    /**
+     * @return the message the population failed with, {@code null} if it has not failed
+     */
+    public String getFailure() {
+        return (String) this.entries.get(FAILURE_KEY);
+    }
+
+    public boolean isUnique() {
+        return Boolean.TRUE.equals(this.entries.get(UNIQUE_KEY));
+    }
+
+    /**
+     * @return when the index was created in milliseconds since the epoch, 0 if unknown
+     */
+    public long getCreated() {
+        final Object created = this.entries.get(CREATED_KEY);
+        return created == null ? 0 : (Long) created;
+    }
+}
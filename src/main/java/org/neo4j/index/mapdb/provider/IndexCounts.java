@@ -0,0 +1,43 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.mapdb.Atomic;
+import org.mapdb.DB;
+
+/**
+ * Number of entries and of distinct values of an index, kept in its store next to the trees they count.
+ * <p>
+ * They are maintained on every update, so sampling an index reads two counters instead of scanning the tree.
+ */
+final class IndexCounts {
+
+    private static final String ENTRIES = "entries";
+
+    private static final String DISTINCT_VALUES = "distinctValues";
+
+    private final Atomic.Long entries;
+
+    private final Atomic.Long distinctValues;
+
+    IndexCounts(final DB db) {
+        this.entries = db.getAtomicLong(ENTRIES);
+        this.distinctValues = db.getAtomicLong(DISTINCT_VALUES);
+    }
+
+    void changed(final long entries, final long distinctValues) {
+        if (entries != 0) this.entries.addAndGet(entries);
+        if (distinctValues != 0) this.distinctValues.addAndGet(distinctValues);
+    }
+
+    void reset(final long entries, final long distinctValues) {
+        this.entries.set(entries);
+        this.distinctValues.set(distinctValues);
+    }
+
+    long entries() {
+        return this.entries.get();
+    }
+
+    long distinctValues() {
+        return this.distinctValues.get();
+    }
+}
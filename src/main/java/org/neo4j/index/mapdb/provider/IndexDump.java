@@ -0,0 +1,288 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.mapdb.Fun;
+import org.neo4j.index.mapdb.MapDbIndexSettings;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexEntryConflictException;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.kernel.configuration.Config;
+
+/**
+ * Dumps the posting lists of an index into a file and restores an index from one, to back it up or to seed
+ * another store with it without repopulating it from the graph.
+ * <p>
+ * A dump holds whole posting lists, values in descending key order, which is the order MapDB's pump builds
+ * a tree from, so restoring streams the file straight into the pump. Each value is written as the length of the
+ * prefix its key shares with the previous key and the bytes after it, followed by its node ids as ascending deltas.
+ * The header holds the format version and whether the index is unique, the trailer the number of entries and
+ * values and a CRC32 of everything before it. Restoring checks all of them and marks the index online only
+ * once the whole dump has been read.
+ * <p>
+ * Dumps are written from a snapshot, so an online index can be dumped while it is updated. Run from the command
+ * line the class dumps and restores the store directory of an index while the database is not running.
+ */
+public final class IndexDump {
+
+    private static final int MAGIC = 0x4D444958;
+
+    /**
+     * Version of the layout of dumps, bumped whenever an older dump cannot be read.
+     */
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private IndexDump() {
+    }
+
+    public static void write(final MapDbIndex index, final File file) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            write(index, out);
+        }
+    }
+
+    /**
+     * Writes the posting lists of a snapshot of the index, leaving {@code out} open.
+     */
+    public static void write(final MapDbIndex index, final OutputStream out) throws IOException {
+        final BufferedOutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        final CheckedOutputStream checked = new CheckedOutputStream(buffered, new CRC32());
+        final DataOutputStream data = new DataOutputStream(checked);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeBoolean(index.isUnique());
+        long entries = 0;
+        long values = 0;
+        try (MapDbIndexReader reader = (MapDbIndexReader) index.newReader()) {
+            final Iterator<Fun.Tuple2<byte[], long[]>> postingLists = reader.getSharedSnapshot().tree().descendingPostingLists();
+            byte[] previous = new byte[0];
+            while (postingLists.hasNext()) {
+                final Fun.Tuple2<byte[], long[]> postingList = postingLists.next();
+                final byte[] key = postingList.a;
+                final long[] nodes = postingList.b;
+                final int prefix = commonPrefix(previous, key);
+                VarLongs.write(data, nodes.length);
+                VarLongs.write(data, prefix);
+                VarLongs.write(data, key.length - prefix);
+                data.write(key, prefix, key.length - prefix);
+                long last = -1;
+                for (final long nodeId : nodes) {
+                    VarLongs.write(data, nodeId - last);
+                    last = nodeId;
+                }
+                entries += nodes.length;
+                values++;
+                previous = key;
+            }
+        }
+        // a value without nodes ends the posting lists
+        VarLongs.write(data, 0);
+        VarLongs.write(data, entries);
+        VarLongs.write(data, values);
+        data.flush();
+        new DataOutputStream(buffered).writeLong(checked.getChecksum().getValue());
+        buffered.flush();
+    }
+
+    /**
+     * Reads the header of a dump only.
+     *
+     * @return the configuration of the dumped index, to create the index it is restored into with
+     */
+    public static IndexConfiguration readConfiguration(final File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return new IndexConfiguration(new DumpedPostingLists(in).unique);
+        }
+    }
+
+    public static void restore(final File file, final MapDbIndex index) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            restore(in, index);
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with those of the dump and marks it online. A dump that turns out to be
+     * damaged leaves the index populating, so it is repopulated rather than used.
+     */
+    public static void restore(final InputStream in, final MapDbIndex index) throws IOException {
+        final DumpedPostingLists postingLists = new DumpedPostingLists(in);
+        if (postingLists.unique != index.isUnique()) {
+            throw new IOException("Dump of a " + (postingLists.unique ? "unique" : "non-unique") + " index cannot be restored into a "
+                    + (index.isUnique() ? "unique" : "non-unique") + " one");
+        }
+        try {
+            index.restore(postingLists);
+        } catch (DumpReadException e) {
+            throw e.getCause();
+        } catch (IndexEntryConflictException e) {
+            throw new IOException("Conflicting entries in unique index", e);
+        }
+    }
+
+    private static int commonPrefix(final byte[] first, final byte[] second) {
+        final int length = Math.min(first.length, second.length);
+        int i = 0;
+        while (i < length && first[i] == second[i]) i++;
+        return i;
+    }
+
+    /**
+     * Reads the posting lists of a dump as they are iterated, checking their order and the trailer once they end.
+     */
+    private static final class DumpedPostingLists implements Iterator<Fun.Tuple2<byte[], long[]>> {
+        private final BufferedInputStream buffered;
+        private final CheckedInputStream checked;
+        private final DataInputStream data;
+        private final boolean unique;
+        private Fun.Tuple2<byte[], long[]> next;
+        private byte[] previous;
+        private boolean ended;
+        private long entries;
+        private long values;
+
+        DumpedPostingLists(final InputStream in) throws IOException {
+            this.buffered = new BufferedInputStream(in, BUFFER_SIZE);
+            this.checked = new CheckedInputStream(this.buffered, new CRC32());
+            this.data = new DataInputStream(this.checked);
+            if (this.data.readInt() != MAGIC) throw new IOException("Not an index dump");
+            final int version = this.data.readInt();
+            if (version != VERSION) throw new IOException("Unsupported index dump version " + version);
+            this.unique = this.data.readBoolean();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.next == null && !this.ended) {
+                try {
+                    this.next = this.read();
+                } catch (IOException e) {
+                    throw new DumpReadException(e);
+                }
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Fun.Tuple2<byte[], long[]> next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            final Fun.Tuple2<byte[], long[]> result = this.next;
+            this.next = null;
+            return result;
+        }
+
+        private Fun.Tuple2<byte[], long[]> read() throws IOException {
+            final long count = VarLongs.read(this.data);
+            if (count == 0) {
+                this.end();
+                return null;
+            }
+            final int prefix = (int) VarLongs.read(this.data);
+            final int suffix = (int) VarLongs.read(this.data);
+            if (prefix > (this.previous == null ? 0 : this.previous.length) || count > Integer.MAX_VALUE) {
+                throw new IOException("Damaged index dump");
+            }
+            final byte[] key = new byte[prefix + suffix];
+            if (prefix > 0) System.arraycopy(this.previous, 0, key, 0, prefix);
+            this.data.readFully(key, prefix, suffix);
+            if (this.previous != null && PropertyKeyComparator.INSTANCE.compare(key, this.previous) >= 0) {
+                throw new IOException("Index dump not in descending order at " + Arrays.toString(key));
+            }
+            final long[] nodes = new long[(int) count];
+            long last = -1;
+            for (int i = 0; i < nodes.length; i++) {
+                final long delta = VarLongs.read(this.data);
+                if (delta <= 0) throw new IOException("Node ids of index dump not ascending at " + Arrays.toString(key));
+                last += delta;
+                nodes[i] = last;
+            }
+            this.entries += nodes.length;
+            this.values++;
+            this.previous = key;
+            return Fun.t2(key, nodes);
+        }
+
+        private void end() throws IOException {
+            this.ended = true;
+            final long entries = VarLongs.read(this.data);
+            final long values = VarLongs.read(this.data);
+            final long checksum = this.checked.getChecksum().getValue();
+            if (new DataInputStream(this.buffered).readLong() != checksum) throw new IOException("Index dump checksum mismatch");
+            if (entries != this.entries || values != this.values) {
+                throw new IOException("Index dump holds " + this.entries + " entries of " + this.values + " values, expected "
+                        + entries + " of " + values);
+            }
+            if (this.buffered.read() != -1) throw new IOException("Trailing bytes after index dump");
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Carries a read error out of the pump, which only takes iterators.
+     */
+    private static final class DumpReadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DumpReadException(final IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * Dumps or restores the store of one index, {@code <index directory>/<index id>}, while the database is stopped.
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 3 || !("dump".equals(args[0]) || "restore".equals(args[0]))) {
+            System.err.println("Usage: IndexDump dump <index store directory> <dump file>");
+            System.err.println("       IndexDump restore <dump file> <index store directory>");
+            System.exit(1);
+        }
+        final boolean dump = "dump".equals(args[0]);
+        final MapDbIndexStore store = new MapDbIndexStore(new File(dump ? args[1] : args[2]));
+        try {
+            if (dump) {
+                if (!store.exists() || store.getCatalog().getState() != InternalIndexState.ONLINE) {
+                    throw new IOException("No online index in " + args[1]);
+                }
+                write(newIndex(store, new IndexConfiguration(store.getCatalog().isUnique())), new File(args[2]));
+            } else {
+                final File file = new File(args[1]);
+                restore(file, newIndex(store, readConfiguration(file)));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    private static MapDbIndex newIndex(final MapDbIndexStore store, final IndexConfiguration config) {
+        final Config defaults = new Config();
+        return new MapDbIndex(store, config, defaults.get(MapDbIndexSettings.population_buffer_size),
+                defaults.get(MapDbIndexSettings.node_values));
+    }
+}
@@ -0,0 +1,162 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts and latencies of the operations on one {@link MapDbIndex}, recorded without allocating.
+ * <p>
+ * They cover the whole life of the index object and survive it being repopulated.
+ */
+public final class IndexMetrics implements IndexMetricsMXBean {
+
+    final Histogram add = new Histogram();
+
+    final Histogram process = new Histogram();
+
+    final Histogram remove = new Histogram();
+
+    final Histogram lookup = new Histogram();
+
+    final Histogram snapshot = new Histogram();
+
+    final Histogram commit = new Histogram();
+
+    final Histogram postingListSizes = new Histogram();
+
+    final Histogram blockSizes = new Histogram();
+
+    final AtomicLong readersOpened = new AtomicLong();
+
+    private final MapDbIndex index;
+
+    private final MapDbIndexStore store;
+
+    IndexMetrics(final MapDbIndex index, final MapDbIndexStore store) {
+        this.index = index;
+        this.store = store;
+    }
+
+    @Override
+    public String getState() {
+        return this.index.getState().name();
+    }
+
+    @Override
+    public long getEntries() {
+        return this.index.counts().entries();
+    }
+
+    @Override
+    public long getDistinctValues() {
+        return this.index.counts().distinctValues();
+    }
+
+    @Override
+    public long getStoreFileSize() {
+        final File[] files = this.store.getDirectory().listFiles();
+        long size = 0;
+        if (files == null) return size;
+        for (final File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    @Override
+    public double getDeadSpaceRatio() {
+        return this.store.getDeadSpaceRatio();
+    }
+
+    @Override
+    public long getCompactions() {
+        return this.store.getCompactions();
+    }
+
+    @Override
+    public long getLastCompactionSizeBefore() {
+        return this.store.getLastCompactionSizeBefore();
+    }
+
+    @Override
+    public long getLastCompactionSizeAfter() {
+        return this.store.getLastCompactionSizeAfter();
+    }
+
+    @Override
+    public Histogram getAddNanos() {
+        return this.add;
+    }
+
+    @Override
+    public Histogram getProcessNanos() {
+        return this.process;
+    }
+
+    @Override
+    public Histogram getRemoveNanos() {
+        return this.remove;
+    }
+
+    @Override
+    public Histogram getLookupNanos() {
+        return this.lookup;
+    }
+
+    @Override
+    public Histogram getSnapshotNanos() {
+        return this.snapshot;
+    }
+
+    @Override
+    public Histogram getCommitNanos() {
+        return this.commit;
+    }
+
+    @Override
+    public Histogram getPostingListSizes() {
+        return this.postingListSizes;
+    }
+
+    @Override
+    public Histogram getBlockSizes() {
+        return this.blockSizes;
+    }
+
+    @Override
+    public long getReadersOpened() {
+        return this.readersOpened.get();
+    }
+
+    @Override
+    public long getPostingListCacheHits() {
+        return this.index.cache().hits();
+    }
+
+    @Override
+    public long getPostingListCacheMisses() {
+        return this.index.cache().misses();
+    }
+
+    @Override
+    public double getPostingListCacheHitRate() {
+        final long hits = this.getPostingListCacheHits();
+        final long lookups = hits + this.getPostingListCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getPostingListCacheSize() {
+        return this.index.cache().size();
+    }
+
+    @Override
+    public double getAverageCommitBatchSize() {
+        return this.store.getGroupCommit().getAverageBatchSize();
+    }
+
+    @Override
+    public long getLastSampleNanos() {
+        return this.index.getLastSampleNanos();
+    }
+}
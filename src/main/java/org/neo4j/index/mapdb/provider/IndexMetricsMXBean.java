@@ -0,0 +1,106 @@
+package org.neo4j.index.mapdb.provider;
+
+/**
+ * Instrumentation of one MapDB index, registered as an MXBean by the schema index provider.
+ * <p>
+ * Latencies are in nanoseconds, each histogram also counts the operations it timed.
+ */
+public interface IndexMetricsMXBean {
+
+    String getState();
+
+    long getEntries();
+
+    long getDistinctValues();
+
+    /**
+     * @return bytes taken by the files of the index store, 0 for a store in memory
+     */
+    long getStoreFileSize();
+
+    /**
+     * @return the part of the store taken by free space, which compaction gives back
+     */
+    double getDeadSpaceRatio();
+
+    /**
+     * @return compactions of the store by the background compactor
+     */
+    long getCompactions();
+
+    /**
+     * @return bytes taken by the store before its last compaction
+     */
+    long getLastCompactionSizeBefore();
+
+    /**
+     * @return bytes taken by the store after its last compaction
+     */
+    long getLastCompactionSizeAfter();
+
+    /**
+     * @return adds of single entries, during population and online
+     */
+    Histogram getAddNanos();
+
+    /**
+     * @return updates processed directly and transactions applied by an updater
+     */
+    Histogram getProcessNanos();
+
+    /**
+     * @return removals of sets of nodes
+     */
+    Histogram getRemoveNanos();
+
+    /**
+     * @return exact value lookups by readers
+     */
+    Histogram getLookupNanos();
+
+    /**
+     * @return snapshots taken for new readers after the index changed
+     */
+    Histogram getSnapshotNanos();
+
+    /**
+     * @return commits of the index, including the wait for a group commit
+     */
+    Histogram getCommitNanos();
+
+    /**
+     * @return sizes of the whole posting lists changed, after the change, as counted by the index
+     */
+    Histogram getPostingListSizes();
+
+    /**
+     * @return sizes of the posting list blocks written, at most the block size of the index
+     */
+    Histogram getBlockSizes();
+
+    /**
+     * @return readers opened, each of them either shares the current snapshot or takes a new one
+     */
+    long getReadersOpened();
+
+    long getPostingListCacheHits();
+
+    long getPostingListCacheMisses();
+
+    /**
+     * @return share of reader lookups answered by the posting list cache, 0 before the first lookup
+     */
+    double getPostingListCacheHitRate();
+
+    /**
+     * @return number of node ids in the cached posting lists, plus one per list
+     */
+    long getPostingListCacheSize();
+
+    /**
+     * @return commit requests that shared one commit of the store, on average
+     */
+    double getAverageCommitBatchSize();
+
+    long getLastSampleNanos();
+}
@@ -0,0 +1,40 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.Arrays;
+
+/**
+ * Monitors guarding the read-modify-write of posting lists, picked by the hash of the key of the property value.
+ * <p>
+ * Committers changing different values rarely share a stripe and proceed in parallel, committers changing the
+ * same value are serialized so none of their node ids get lost.
+ */
+final class LockStripes {
+
+    private final Object[] stripes;
+
+    private final int mask;
+
+    /**
+     * @param count number of stripes, rounded up to a power of two
+     */
+    LockStripes(final int count) {
+        final int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        this.stripes = new Object[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Object();
+        }
+        this.mask = size - 1;
+    }
+
+    Object stripe(final byte[] key) {
+        final int hash = hash(key);
+        return this.stripes[(hash ^ (hash >>> 16)) & this.mask];
+    }
+
+    /**
+     * Hash of the content of a key, equal values of all numeric types share a key and a stripe.
+     */
+    static int hash(final byte[] key) {
+        return Arrays.hashCode(key);
+    }
+}
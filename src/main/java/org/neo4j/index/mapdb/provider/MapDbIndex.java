@@ -1,22 +1,36 @@
 package org.neo4j.index.mapdb.provider;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.mapdb.BTreeKeySerializer;
 import org.mapdb.BTreeMap;
 import org.mapdb.DB;
+import org.mapdb.Fun;
+import org.mapdb.Serializer;
 import org.neo4j.collection.primitive.PrimitiveLongIterator;
 import org.neo4j.collection.primitive.PrimitiveLongSet;
 import org.neo4j.kernel.api.exceptions.index.IndexCapacityExceededException;
+import org.neo4j.kernel.api.index.DuplicateIndexEntryConflictException;
 import org.neo4j.kernel.api.index.IndexAccessor;
+import org.neo4j.kernel.api.index.IndexConfiguration;
 import org.neo4j.kernel.api.index.IndexEntryConflictException;
 import org.neo4j.kernel.api.index.IndexPopulator;
 import org.neo4j.kernel.api.index.IndexReader;
 import org.neo4j.kernel.api.index.IndexUpdater;
 import org.neo4j.kernel.api.index.InternalIndexState;
 import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.api.index.PreexistingIndexEntryConflictException;
 import org.neo4j.kernel.api.index.PropertyAccessor;
 import org.neo4j.kernel.api.index.Reservation;
 import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
@@ -24,56 +38,271 @@ import org.neo4j.register.Register;
 
 public class MapDbIndex extends IndexAccessor.Adapter implements IndexPopulator, IndexUpdater {
 
-    private final BTreeMap<Object,long[]> indexData;
+    private static final String POSTINGS_TREE = "postings";
 
-    private final DB db;
+    /**
+     * Held whole posting lists keyed by value before they were split into blocks.
+     */
+    private static final String LEGACY_INDEX_TREE = "index";
+
+    private static final String NODE_VALUES_TREE = "nodes";
+
+    private static final int LOCK_STRIPES = 256;
+
+    static final int DEFAULT_POSTING_LIST_CACHE_SIZE = 1 << 20;
+
+    static final int DEFAULT_POSTING_LIST_BLOCK_SIZE = 1024;
+
+    static final int DEFAULT_POPULATION_THREADS = 1;
+
+    private volatile PostingTree indexData;
+
+    /**
+     * Reverse of {@link #indexData}: node id to the key of the value it is indexed with, {@code null} if disabled.
+     */
+    private BTreeMap<Long,byte[]> nodeValues;
+
+    private IndexCounts counts;
+
+    /**
+     * Guard each read-modify-write of a posting list, so concurrent committers do not lose each other's node ids.
+     */
+    private final LockStripes locks = new LockStripes(LOCK_STRIPES);
+
+    private final MapDbIndexStore store;
+
+    private DB db;
 
-    private InternalIndexState state = InternalIndexState.POPULATING;
+    private final int populationBufferSize;
 
+    private final int blockSize;
+
+    private final int populationThreads;
+
+    private final boolean nodeValuesEnabled;
+
+    /**
+     * Backs a uniqueness constraint, a value may be indexed with at most one node.
+     */
+    private final boolean unique;
+
+    private PartitionedPopulationBuffer populationBuffer;
+
+    /**
+     * The (value, nodeId) pairs of the population by node id, the node values tree is pumped from them once it is done.
+     */
+    private PopulationBuffer nodeValuesBuffer;
+
+    /**
+     * Updates that arrived through the populating updater while entries are buffered, also guards the hand-over
+     * from buffering them to applying them.
+     */
+    private final List<NodePropertyUpdate> populationUpdates = new ArrayList<>();
+
+    private IndexCatalog catalog;
+
+    private volatile int lastSampleProbes;
+
+    private volatile long lastSampleNanos;
+
+    /**
+     * Incremented on every commit, readers share {@link #snapshot} while it was taken at the current version.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    private volatile SharedSnapshot snapshot;
+
+    /**
+     * Shared by writers while they change the store, taken exclusively to snapshot it.
+     * MapDB cannot snapshot a store with uncommitted data, so a snapshot waits until no writer is halfway
+     * through its changes and commits what they left uncommitted first.
+     */
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    /**
+     * Set by every writer, cleared when a snapshot commits the store.
+     */
+    private volatile boolean uncommitted;
+
+    private final IndexMetrics metrics;
+
+    private final PostingListCache cache;
+
+    /**
+     * @return an updater that buffers the updates of a transaction and applies them when it is closed.
+     * In {@link IndexUpdateMode#RECOVERY} the updates replayed after a crash may already be in the index,
+     * the updater makes applying them again harmless.
+     */
     @Override
     public IndexUpdater newUpdater(final IndexUpdateMode mode) {
-        return this;
+        return new BufferedIndexUpdater(this, mode == IndexUpdateMode.RECOVERY);
     }
 
-    public MapDbIndex(final BTreeMap<Object,long[]> map, final DB db) {
-        this.indexData = map;
-        this.db = db;
+    /**
+     * @param populationBufferSize number of entries population buffers before spilling a sorted run to the store directory
+     * @param nodeValuesEnabled whether to keep the node id to value tree, which makes {@link #remove(PrimitiveLongSet)}
+     * touch only the affected values instead of scanning the whole index
+     */
+    public MapDbIndex(final MapDbIndexStore store, final IndexConfiguration config, final int populationBufferSize,
+                      final boolean nodeValuesEnabled) {
+        this(store, config, populationBufferSize, nodeValuesEnabled, DEFAULT_POSTING_LIST_CACHE_SIZE,
+                DEFAULT_POSTING_LIST_BLOCK_SIZE, DEFAULT_POPULATION_THREADS);
     }
 
+    /**
+     * @param postingListCacheSize number of node ids the decoded posting lists shared by readers may hold, 0 for none
+     * @param blockSize number of node ids after which a posting list is split into another block
+     * @param populationThreads number of threads population sorts its entries with, partitioned by value
+     */
+    public MapDbIndex(final MapDbIndexStore store, final IndexConfiguration config, final int populationBufferSize,
+                      final boolean nodeValuesEnabled, final int postingListCacheSize, final int blockSize,
+                      final int populationThreads) {
+        this.store = store;
+        this.cache = new PostingListCache(postingListCacheSize);
+        this.blockSize = blockSize;
+        this.populationThreads = populationThreads;
+        this.unique = config.isUnique();
+        this.populationBufferSize = populationBufferSize;
+        this.nodeValuesEnabled = nodeValuesEnabled;
+        this.metrics = new IndexMetrics(this, store);
+        this.open();
+    }
+
+    private void open() {
+        this.db = this.store.getDb();
+        if (this.db.exists(LEGACY_INDEX_TREE)) this.db.delete(LEGACY_INDEX_TREE);
+        this.indexData = this.postingTree(this.postingTreeMaker().<Fun.Tuple2<byte[], Long>, PostingBitmap>makeOrGet());
+        this.nodeValues = this.openNodeValues();
+        this.counts = new IndexCounts(this.db);
+        this.catalog = this.store.getCatalog();
+        // snapshots can only be taken without uncommitted data, like the trees and counters created for a new store
+        this.store.commit();
+    }
+
+    private DB.BTreeMapMaker postingTreeMaker() {
+        return this.db.createTreeMap(POSTINGS_TREE)
+                .comparator(BlockKeyComparator.INSTANCE)
+                .keySerializer(BlockKeySerializer.INSTANCE)
+                .valueSerializer(PostingBitmapSerializer.INSTANCE)
+                // lookups and counts read the blocks they need instead of all blocks of the tree nodes they pass
+                .valuesOutsideNodesEnable();
+    }
+
+    private PostingTree postingTree(final BTreeMap<Fun.Tuple2<byte[], Long>, PostingBitmap> blocks) {
+        return new PostingTree(blocks, this.blockSize, this.metrics.blockSizes);
+    }
+
+    private DB.BTreeMapMaker nodeValuesMaker() {
+        return this.db.createTreeMap(NODE_VALUES_TREE).keySerializer(BTreeKeySerializer.ZERO_OR_POSITIVE_LONG)
+                .valueSerializer(Serializer.BYTE_ARRAY);
+    }
+
+    private BTreeMap<Long,byte[]> openNodeValues() {
+        // an index reattached after the tree was disabled has no tree to start from, it keeps scanning for removals
+        if (this.nodeValuesEnabled && (this.db.exists(NODE_VALUES_TREE) || this.indexData.isEmpty())) {
+            return this.nodeValuesMaker().makeOrGet();
+        }
+        // a tree left over from when it was enabled would be stale
+        if (this.db.exists(NODE_VALUES_TREE)) this.db.delete(NODE_VALUES_TREE);
+        return null;
+    }
+
+    /**
+     * @return the state recorded in the catalog of the store, which outlives restarts of durable stores
+     */
     public InternalIndexState getState() {
-        return this.state;
+        return this.catalog.getState();
     }
 
+    /**
+     * @return the failure the population was marked with, {@code null} unless the state is {@link InternalIndexState#FAILED}
+     */
+    public String getFailure() {
+        return this.catalog.getFailure();
+    }
+
+    public boolean isUnique() {
+        return this.unique;
+    }
+
+    public IndexMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    IndexCounts counts() {
+        return this.counts;
+    }
+
+    PostingListCache cache() {
+        return this.cache;
+    }
+
+    MapDbIndexStore store() {
+        return this.store;
+    }
+
+    /**
+     * During population the entries are only buffered, the tree is built from them in {@link #close(boolean)}.
+     */
     @Override
-    public void add(final long nodeId, final Object propertyValue) {
-        long[] nodes = this.indexData.get(propertyValue);
-        if (nodes==null || nodes.length==0) {
-            this.indexData.put(propertyValue, new long[]{nodeId});
-            return;
+    public void add(final long nodeId, final Object propertyValue) throws IOException, IndexEntryConflictException {
+        final long start = System.nanoTime();
+        if (this.populationBuffer == null) {
+            this.beginWrite();
+            try {
+                this.added(nodeId, propertyValue);
+            } finally {
+                this.endWrite();
+            }
+        } else {
+            final byte[] key = PropertyKeys.encode(propertyValue);
+            this.populationBuffer.add(key, nodeId);
+            if (this.nodeValuesBuffer != null) this.nodeValuesBuffer.add(key, nodeId);
         }
-        final int idx=this.indexOf(nodes,nodeId);
-        if (idx!=-1) return;
-        nodes = Arrays.copyOfRange(nodes, 0, nodes.length + 1);
-        nodes[nodes.length-1]=nodeId;
-        this.indexData.replace(propertyValue, nodes);
+        this.metrics.add.recordSince(start);
     }
 
-    @Override public Reservation validate(final Iterable<NodePropertyUpdate> updates) throws IOException, IndexCapacityExceededException {
-
-        // TODO
+    private void added(final long nodeId, final Object propertyValue) throws IndexEntryConflictException {
+        final byte[] key = PropertyKeys.encode(propertyValue);
+        synchronized (this.locks.stripe(key)) {
+            if (this.unique) {
+                if (this.indexData.exists(key) && !this.indexData.contains(key, nodeId)) {
+                    throw new PreexistingIndexEntryConflictException(propertyValue, this.indexData.first(key), nodeId);
+                }
+            }
+            if (this.nodeValues != null) this.nodeValues.put(nodeId, key);
+            this.write(key, new long[]{nodeId}, PostingLists.EMPTY);
+        }
+    }
 
-        return null;
+    /**
+     * Nothing to reserve, the trees grow as needed.
+     */
+    @Override
+    public Reservation validate(final Iterable<NodePropertyUpdate> updates) throws IOException, IndexCapacityExceededException {
+        return Reservation.EMPTY;
     }
 
     @Override
     public void process(final NodePropertyUpdate update) throws IOException, IndexEntryConflictException {
+        final long start = System.nanoTime();
+        this.beginWrite();
+        try {
+            this.apply(update);
+        } finally {
+            this.endWrite();
+        }
+        this.metrics.process.recordSince(start);
+    }
+
+    private void apply(final NodePropertyUpdate update) throws IndexEntryConflictException {
         switch (update.getUpdateMode()) {
         case ADDED:
-            this.add(update.getNodeId(), update.getValueAfter());
+            this.added(update.getNodeId(), update.getValueAfter());
             break;
         case CHANGED:
             this.removed(update.getNodeId(), update.getValueBefore());
-            this.add(update.getNodeId(), update.getValueAfter());
+            this.added(update.getNodeId(), update.getValueAfter());
             break;
         case REMOVED:
             this.removed(update.getNodeId(), update.getValueBefore());
@@ -85,115 +314,638 @@ public class MapDbIndex extends IndexAccessor.Adapter implements IndexPopulator,
 
     @Override
     public void remove(final PrimitiveLongSet nodeIds) throws IOException {
+        final long start = System.nanoTime();
+        this.beginWrite();
+        try {
+            if (this.nodeValues == null) {
+                this.removeByScan(nodeIds);
+            } else {
+                final PrimitiveLongIterator nodeIdIter = nodeIds.iterator();
+                while (nodeIdIter.hasNext()) {
+                    final long nodeId = nodeIdIter.next();
+                    final byte[] key = this.nodeValues.remove(nodeId);
+                    if (key != null) this.removeFromPostingList(nodeId, key);
+                }
+            }
+        } finally {
+            this.endWrite();
+        }
+        this.metrics.remove.recordSince(start);
+    }
 
-        final Iterator<Map.Entry<Object,long[]>> entries = this.indexData.entrySet().iterator();
-        while (entries.hasNext()) {
-            final Map.Entry<Object, long[]> entry = entries.next();
-            long[] nodes = entry.getValue();
-            int existingCount = nodes.length;
+    private void removeByScan(final PrimitiveLongSet nodeIds) {
+        final Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> blocks = this.indexData.entries();
+        while (blocks.hasNext()) {
+            final Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> block = blocks.next();
+            final long[] deletions = contained(block.getValue(), nodeIds);
+            if (deletions.length == 0) continue;
+            final byte[] value = block.getKey().a;
+            synchronized (this.locks.stripe(value)) {
+                this.write(value, PostingLists.EMPTY, deletions);
+            }
+        }
+    }
 
-            final PrimitiveLongIterator nodeIdIter = nodeIds.iterator();
+    /**
+     * @return the node ids of the posting list that are in {@code nodeIds}, in ascending order
+     */
+    private static long[] contained(final PostingBitmap nodes, final PrimitiveLongSet nodeIds) {
+        long[] result = PostingLists.EMPTY;
+        int count = 0;
+        final PrimitiveLongIterator nodeIdIter = nodes.iterator();
+        while (nodeIdIter.hasNext()) {
+            final long nodeId = nodeIdIter.next();
+            if (!nodeIds.contains(nodeId)) continue;
+            if (count == result.length) result = Arrays.copyOf(result, Math.max(4, count * 2));
+            result[count++] = nodeId;
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
 
-            while(nodeIdIter.hasNext()) {
+    private void removed(final long nodeId, final Object propertyValue) {
+        if (this.nodeValues != null) this.nodeValues.remove(nodeId);
+        this.removeFromPostingList(nodeId, PropertyKeys.encode(propertyValue));
+    }
 
-                final long nodeId = nodeIdIter.next();
+    private void removeFromPostingList(final long nodeId, final byte[] key) {
+        synchronized (this.locks.stripe(key)) {
+            this.write(key, PostingLists.EMPTY, new long[]{nodeId});
+        }
+    }
 
-                final int idx = this.indexOf(nodes, nodeId);
-                if (idx != -1) {
-                    if (existingCount == 1) {
-                        entries.remove();
-                        break;
-                    } else {
-                        System.arraycopy(nodes,idx,nodes,idx-1, existingCount-idx-1);
-                        nodes = Arrays.copyOfRange(nodes, 0, existingCount - 1);
-                        entry.setValue(nodes);
-                        existingCount--;
-                    }
-                }
+    /**
+     * Applies the changes to the posting list of one value, reading and writing only the blocks they fall into.
+     * A unique index is checked against its posting list first, it is left unchanged on a conflict.
+     * The counts are not changed, callers pass what their updates changed to {@link #counted(long, long)} at once.
+     *
+     * @param propertyValue a value encoded into {@code key}, reported on a conflict
+     * @return what the update changed, {@code null} if nothing
+     */
+    PostingTree.Change update(final byte[] key, final Object propertyValue, final long[] insertions, final long[] deletions)
+            throws IndexEntryConflictException {
+        synchronized (this.locks.stripe(key)) {
+            if (this.unique) {
+                final long[] nodes = this.indexData.get(key);
+                final long[] updated = PostingLists.update(nodes, insertions, deletions);
+                if (updated != nodes && updated.length > 1) throw conflict(propertyValue, nodes, insertions, deletions);
             }
+            return this.change(key, insertions, deletions);
         }
     }
 
-    private void removed(final long nodeId, final Object propertyValue) {
-        long[] nodes = this.indexData.get(propertyValue);
-        if (nodes==null || nodes.length ==0) return;
-        final int idx=this.indexOf(nodes,nodeId);
-        if (idx==-1) return;
-        final int existingCount = nodes.length;
-        if (existingCount == 1) {
-            this.indexData.remove(propertyValue);
-            return;
+    /**
+     * Adds what updates applied by {@link #update} changed to the counts, each counter is written once.
+     */
+    void counted(final long entries, final long distinctValues) {
+        this.counts.changed(entries, distinctValues);
+    }
+
+    /**
+     * Called with the lock stripe of the value held.
+     *
+     * @return what the update changed, {@code null} if nothing
+     */
+    private PostingTree.Change write(final byte[] key, final long[] insertions, final long[] deletions) {
+        final PostingTree.Change change = this.change(key, insertions, deletions);
+        if (change != null) this.counts.changed(change.entries, change.values);
+        return change;
+    }
+
+    /**
+     * Like {@link #write} without counting the change.
+     */
+    private PostingTree.Change change(final byte[] key, final long[] insertions, final long[] deletions) {
+        final PostingTree.Change change = this.indexData.update(key, insertions, deletions);
+        if (change == null) return null;
+        this.cache.invalidate(key, this.version.get());
+        if (change.size > 0) this.metrics.postingListSizes.record(change.size);
+        return change;
+    }
+
+    private static IndexEntryConflictException conflict(final Object propertyValue, final long[] nodes,
+                                                        final long[] insertions, final long[] deletions) {
+        if (nodes != null) {
+            for (final long existing : nodes) {
+                if (Arrays.binarySearch(deletions, existing) >= 0) continue;
+                for (final long added : insertions) {
+                    if (added != existing) return new PreexistingIndexEntryConflictException(propertyValue, existing, added);
+                }
+            }
         }
-        System.arraycopy(nodes,idx,nodes,idx-1, existingCount-idx-1);
-        nodes = Arrays.copyOfRange(nodes, 0, existingCount - 1);
-        this.indexData.replace(propertyValue, nodes);
+        final Set<Long> conflicting = new HashSet<>();
+        for (final long added : insertions) {
+            conflicting.add(added);
+        }
+        return new DuplicateIndexEntryConflictException(propertyValue, conflicting);
     }
 
-    private int indexOf(final long[] nodes, final long nodeId) {
-        for (int i = nodes.length - 1; i != 0; i--) {
-            if (nodes[i]==nodeId) return i;
+    /**
+     * @param key the key of the value the node is indexed with now, {@code null} if it is no longer indexed
+     */
+    void updateNodeValue(final long nodeId, final byte[] key) {
+        if (this.nodeValues == null) return;
+        if (key == null) {
+            this.nodeValues.remove(nodeId);
+        } else {
+            this.nodeValues.put(nodeId, key);
         }
-        return -1;
+    }
+
+    /**
+     * @return the key of the value the node is indexed with, {@code null} if it is not indexed or there is no node values tree
+     */
+    byte[] nodeValue(final long nodeId) {
+        return this.nodeValues == null ? null : this.nodeValues.get(nodeId);
     }
 
     @Override
     @Deprecated
     public void verifyDeferredConstraints(final PropertyAccessor accessor) throws Exception {
-        // constraints are checked in add() so do nothing
+        // a unique index is checked while it is built from the sorted buffer, in one pass over all values
+        if (this.unique) {
+            this.beginWrite();
+            try {
+                this.buildFromPopulationBuffer();
+            } finally {
+                this.endWrite();
+            }
+        }
     }
 
+    /**
+     * Updates that arrive while entries are still buffered are applied after the tree has been built.
+     * They only concern nodes the store scan has already passed, so they are ordered after the buffered entries.
+     */
     @Override
     public IndexUpdater newPopulatingUpdater(final PropertyAccessor accessor) throws IOException {
-        return this;
+        return new IndexUpdater() {
+            @Override
+            public Reservation validate(final Iterable<NodePropertyUpdate> updates) {
+                return Reservation.EMPTY;
+            }
+
+            @Override
+            public void process(final NodePropertyUpdate update) throws IndexEntryConflictException {
+                synchronized (MapDbIndex.this.populationUpdates) {
+                    if (MapDbIndex.this.populationBuffer == null) {
+                        MapDbIndex.this.beginWrite();
+                        try {
+                            MapDbIndex.this.apply(update);
+                        } finally {
+                            MapDbIndex.this.endWrite();
+                        }
+                    } else {
+                        MapDbIndex.this.populationUpdates.add(update);
+                    }
+                }
+            }
+
+            @Override
+            public void remove(final PrimitiveLongSet nodeIds) {
+                throw new UnsupportedOperationException("Should not remove() from populating index.");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
     }
 
     @Override
     public void markAsFailed(final String failure) throws IOException {
-        throw new UnsupportedOperationException();
+        this.beginWrite();
+        try {
+            this.catalog.failed(failure);
+            this.store.commit();
+        } finally {
+            this.endWrite();
+        }
+    }
+
+    /**
+     * Writes the number of distinct values and of entries, which are maintained on every update.
+     *
+     * @return number of entries in the index
+     */
+    @Override
+    public long sampleResult(final Register.DoubleLong.Out result) {
+        final long start = System.nanoTime();
+        final long entries = this.counts.entries();
+        result.write(this.counts.distinctValues(), entries);
+        this.sampled(0, start);
+        return entries;
     }
 
-    @Override public long sampleResult(final Register.DoubleLong.Out result) {
+    /**
+     * Estimates the number of distinct values from at most {@code probes} random nodes instead of the maintained
+     * count, for a bounded cost that does not depend on the size of the index.
+     * <p>
+     * Each probe picks the first node at or after a random node id and reads the size {@code s} of its posting list.
+     * As every node of a value is as likely to be picked, the mean of {@code 1/s} times the number of entries
+     * estimates the number of distinct values. Falls back to {@link #sampleResult} without the node values tree.
+     *
+     * @return number of entries in the index
+     */
+    public long sampleRandomly(final int probes, final Random random, final Register.DoubleLong.Out result) {
+        if (this.nodeValues == null || this.nodeValues.isEmpty()) return this.sampleResult(result);
+        final long start = System.nanoTime();
+        final long entries = this.counts.entries();
+        final long first = this.nodeValues.firstKey();
+        final long range = this.nodeValues.lastKey() - first + 1;
+        double inverseSizes = 0;
+        int sampled = 0;
+        for (int i = 0; i < probes; i++) {
+            final long nodeId = first + (long) (random.nextDouble() * range);
+            final Map.Entry<Long, byte[]> node = this.nodeValues.ceilingEntry(nodeId);
+            final long size = node == null ? 0 : this.indexData.size(node.getValue());
+            if (size == 0) continue;
+            inverseSizes += 1.0 / size;
+            sampled++;
+        }
+        final long distinctValues = sampled == 0 ? 0 : Math.max(1, Math.round(inverseSizes / sampled * entries));
+        result.write(Math.min(distinctValues, entries), entries);
+        this.sampled(probes, start);
+        return entries;
+    }
 
-        // TODO
+    private void sampled(final int probes, final long start) {
+        this.lastSampleProbes = probes;
+        this.lastSampleNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * @return number of tree probes made by the last sample, 0 if it was read from the maintained counts
+     */
+    public int getLastSampleProbes() {
+        return this.lastSampleProbes;
+    }
 
-        return 0;
+    public long getLastSampleNanos() {
+        return this.lastSampleNanos;
     }
 
     @Override
     public void force() {
-        this.db.commit();
+        this.commit();
     }
 
+    /**
+     * Starts from an empty store, deleting whatever a previous population left behind.
+     */
     @Override
     public void create() {
-        this.indexData.clear();
-        this.db.commit();
+        this.closePopulationBuffer();
+        this.beginWrite();
+        try {
+            this.releaseSnapshot();
+            this.store.delete();
+            this.open();
+            this.catalog.created(this.unique);
+            this.store.commit();
+        } finally {
+            this.endWrite();
+        }
+        this.populationBuffer = new PartitionedPopulationBuffer(this.store.getDirectory(), this.populationBufferSize,
+                this.populationThreads);
+        if (this.nodeValues != null) {
+            this.nodeValuesBuffer = new PopulationBuffer(this.store.getDirectory(), this.populationBufferSize,
+                    PopulationBuffer.BY_NODE_DESCENDING);
+        }
     }
 
     @Override
     public void drop() {
-        this.indexData.clear();
-        this.db.commit();
+        this.closePopulationBuffer();
+        this.beginWrite();
+        try {
+            this.releaseSnapshot();
+            this.store.delete();
+        } finally {
+            this.endWrite();
+        }
     }
 
     @Override
-    public void close(final boolean populationCompletedSuccessfully) {
-        if (populationCompletedSuccessfully) {
-            this.state = InternalIndexState.ONLINE;
+    public void close(final boolean populationCompletedSuccessfully) throws IOException {
+        this.beginWrite();
+        try {
+            if (populationCompletedSuccessfully) {
+                this.buildFromPopulationBuffer();
+                // only once the entries are committed, a crash before leaves the index to be repopulated
+                this.catalog.online();
+                this.commit();
+            }
+        } catch (IndexEntryConflictException e) {
+            throw new IOException("Conflicting entries in unique index", e);
+        } finally {
+            this.endWrite();
+            this.closePopulationBuffer();
+        }
+    }
+
+    /**
+     * Replaces the trees with ones built bottom-up by MapDB's pump from the sorted population buffers,
+     * then applies the updates that came in through the populating updater.
+     */
+    private void buildFromPopulationBuffer() throws IOException, IndexEntryConflictException {
+        if (this.populationBuffer == null) return;
+        Iterator<Fun.Tuple2<byte[], long[]>> entries = this.populationBuffer.sortedEntries();
+        final UniqueEntries uniqueEntries = this.unique ? new UniqueEntries(entries) : null;
+        if (uniqueEntries != null) entries = uniqueEntries;
+        this.buildPostingTree(entries);
+        this.counts.reset(this.populationBuffer.sortedEntryCount(), this.populationBuffer.sortedValueCount());
+        this.populationBuffer.close();
+        if (this.nodeValuesBuffer != null) {
+            this.buildNodeValues(this.nodeValuesBuffer.sortedPairs());
+            this.nodeValuesBuffer.close();
+            this.nodeValuesBuffer = null;
+        }
+        synchronized (this.populationUpdates) {
+            this.populationBuffer = null;
+            if (uniqueEntries != null && uniqueEntries.conflict != null) throw uniqueEntries.conflict;
+            // updates arriving from now on are applied right away, after these
+            for (final NodePropertyUpdate update : this.populationUpdates) {
+                this.apply(update);
+            }
+            this.populationUpdates.clear();
+        }
+        this.commit();
+    }
+
+    /**
+     * Replaces the tree with one built bottom-up by MapDB's pump.
+     *
+     * @param postingLists whole posting lists, values in descending order
+     */
+    private void buildPostingTree(final Iterator<Fun.Tuple2<byte[], long[]>> postingLists) {
+        this.db.delete(POSTINGS_TREE);
+        final DB.BTreeMapMaker maker = this.postingTreeMaker();
+        // MapDB's pump cannot build a tree from an empty source
+        if (postingLists.hasNext()) maker.pumpSource(PostingTree.blocksOf(postingLists, this.blockSize));
+        this.indexData = this.postingTree(maker.<Fun.Tuple2<byte[], Long>, PostingBitmap>make());
+        this.cache.clear(this.version.get());
+    }
+
+    /**
+     * Replaces the node values tree with one built bottom-up by MapDB's pump.
+     *
+     * @param pairs (value, nodeId) pairs in descending node id order
+     */
+    private void buildNodeValues(final Iterator<Fun.Tuple2<byte[], Long>> pairs) {
+        this.db.delete(NODE_VALUES_TREE);
+        final DB.BTreeMapMaker maker = this.nodeValuesMaker();
+        // MapDB's pump cannot build a tree from an empty source
+        if (pairs.hasNext()) maker.pumpSource(new NodeValueEntries(pairs)).pumpIgnoreDuplicates();
+        this.nodeValues = maker.make();
+    }
+
+    /**
+     * Turns (value, nodeId) pairs into entries of the node values tree.
+     */
+    private static class NodeValueEntries implements Iterator<Fun.Tuple2<Long, byte[]>> {
+        private final Iterator<Fun.Tuple2<byte[], Long>> pairs;
+
+        NodeValueEntries(final Iterator<Fun.Tuple2<byte[], Long>> pairs) {
+            this.pairs = pairs;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.pairs.hasNext();
+        }
+
+        @Override
+        public Fun.Tuple2<Long, byte[]> next() {
+            final Fun.Tuple2<byte[], Long> pair = this.pairs.next();
+            return Fun.t2(pair.b, pair.a);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with the posting lists of a dump, built like a population,
+     * and marks it online once they are committed. If reading them fails the index is left populating.
+     *
+     * @param postingLists whole posting lists, values in descending order
+     */
+    void restore(final Iterator<Fun.Tuple2<byte[], long[]>> postingLists) throws IOException, IndexEntryConflictException {
+        this.closePopulationBuffer();
+        this.beginWrite();
+        PopulationBuffer nodeValuesBuffer = null;
+        try {
+            this.releaseSnapshot();
+            this.store.delete();
+            this.open();
+            this.catalog.created(this.unique);
+            this.store.commit();
+            if (this.nodeValues != null) {
+                nodeValuesBuffer = new PopulationBuffer(this.store.getDirectory(), this.populationBufferSize,
+                        PopulationBuffer.BY_NODE_DESCENDING);
+            }
+            final RestoredEntries restored = new RestoredEntries(postingLists, nodeValuesBuffer);
+            final UniqueEntries uniqueEntries = this.unique ? new UniqueEntries(restored) : null;
+            this.buildPostingTree(uniqueEntries != null ? uniqueEntries : restored);
+            if (uniqueEntries != null && uniqueEntries.conflict != null) throw uniqueEntries.conflict;
+            if (nodeValuesBuffer != null) this.buildNodeValues(nodeValuesBuffer.sortedPairs());
+            this.counts.reset(restored.entries, restored.values);
+            this.catalog.online();
+            this.commit();
+        } finally {
+            if (nodeValuesBuffer != null) nodeValuesBuffer.close();
+            this.endWrite();
+        }
+    }
+
+    /**
+     * Passes restored posting lists on to the pump, counting them and buffering their pairs for the node values tree,
+     * which is pumped from them once the posting lists are done.
+     */
+    private static class RestoredEntries implements Iterator<Fun.Tuple2<byte[], long[]>> {
+        private final Iterator<Fun.Tuple2<byte[], long[]>> postingLists;
+        private final PopulationBuffer nodeValues;
+        private long entries;
+        private long values;
+
+        /**
+         * @param nodeValues buffer sorted by node id, {@code null} if there is no node values tree
+         */
+        RestoredEntries(final Iterator<Fun.Tuple2<byte[], long[]>> postingLists, final PopulationBuffer nodeValues) {
+            this.postingLists = postingLists;
+            this.nodeValues = nodeValues;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.postingLists.hasNext();
+        }
+
+        @Override
+        public Fun.Tuple2<byte[], long[]> next() {
+            final Fun.Tuple2<byte[], long[]> postingList = this.postingLists.next();
+            this.entries += postingList.b.length;
+            this.values++;
+            if (this.nodeValues != null) {
+                try {
+                    for (final long nodeId : postingList.b) {
+                        this.nodeValues.add(postingList.a, nodeId);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Error buffering restored node values", e);
+                }
+            }
+            return postingList;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Passes the sorted entries on to the pump and remembers the first value with more than one node.
+     */
+    private static class UniqueEntries implements Iterator<Fun.Tuple2<byte[], long[]>> {
+        private final Iterator<Fun.Tuple2<byte[], long[]>> entries;
+        private IndexEntryConflictException conflict;
+
+        UniqueEntries(final Iterator<Fun.Tuple2<byte[], long[]>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.entries.hasNext();
+        }
+
+        @Override
+        public Fun.Tuple2<byte[], long[]> next() {
+            final Fun.Tuple2<byte[], long[]> entry = this.entries.next();
+            if (this.conflict == null && entry.b.length > 1) {
+                this.conflict = conflict(PropertyKeys.decode(entry.a), null, entry.b, PostingLists.EMPTY);
+            }
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private void commit() {
+        final long start = System.nanoTime();
+        this.store.commit();
+        this.metrics.commit.recordSince(start);
+        this.version.incrementAndGet();
+    }
+
+    private void closePopulationBuffer() {
+        if (this.populationBuffer != null) {
+            this.populationBuffer.close();
+            this.populationBuffer = null;
+        }
+        if (this.nodeValuesBuffer != null) {
+            this.nodeValuesBuffer.close();
+            this.nodeValuesBuffer = null;
+        }
+        synchronized (this.populationUpdates) {
+            this.populationUpdates.clear();
         }
     }
 
     @Override
     public void close() {
-        this.db.commit();
+        this.commit();
     }
 
     /**
      * @return a new {@link IndexReader} responsible for looking up results in the index.
      * The returned reader must honor repeatable reads.
+     * <p>
+     * Readers opened between two commits share one snapshot, a new snapshot is only taken after the index changed.
      */
     @Override
     public IndexReader newReader() {
-        return new MapDbIndexReader((BTreeMap<Object, long[]>) this.indexData.snapshot());
+        this.metrics.readersOpened.incrementAndGet();
+        while (true) {
+            final SharedSnapshot current = this.snapshot;
+            if (current != null && current.version() == this.version.get() && current.acquire()) {
+                return new MapDbIndexReader(current, this.metrics, this.cache);
+            }
+            this.refreshSnapshot();
+        }
+    }
+
+    /**
+     * Opens a change of the store, the next snapshot waits until it is closed by {@link #endWrite()}.
+     * Changes that belong together, like the updates of one transaction, go into one window.
+     * A writer must not open a reader inside it, as the snapshot would wait for the writer itself.
+     */
+    void beginWrite() {
+        this.snapshotLock.readLock().lock();
+        this.uncommitted = true;
+    }
+
+    void endWrite() {
+        this.snapshotLock.readLock().unlock();
+    }
+
+    /**
+     * Compacts the store once no writer is halfway through its changes, MapDB only compacts committed stores.
+     * Writers wait until the whole store is compacted, readers keep their snapshots.
+     *
+     * @return whether the store was compacted, not if it is not open
+     */
+    boolean compact() {
+        final Lock exclusive = this.snapshotLock.writeLock();
+        exclusive.lock();
+        try {
+            if (this.uncommitted) {
+                this.uncommitted = false;
+                this.store.commit();
+            }
+            return this.store.compact();
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    private void refreshSnapshot() {
+        final Lock exclusive = this.snapshotLock.writeLock();
+        exclusive.lock();
+        try {
+            this.takeSnapshot();
+        } finally {
+            exclusive.unlock();
+        }
+    }
+
+    private synchronized void takeSnapshot() {
+        final long currentVersion = this.version.get();
+        final SharedSnapshot current = this.snapshot;
+        if (current != null && current.version() == currentVersion) return;
+        final long start = System.nanoTime();
+        if (this.uncommitted) {
+            // no writer is halfway through its changes, the rest is committed by its writer as usual
+            this.uncommitted = false;
+            this.store.commit();
+        }
+        // the counts are read after taking the snapshot, they may include a concurrent update it does not see
+        this.snapshot = new SharedSnapshot(this.indexData.snapshot(), currentVersion,
+                this.counts.entries(), this.counts.distinctValues());
+        if (current != null) current.release();
+        this.metrics.snapshot.recordSince(start);
+    }
+
+    private synchronized void releaseSnapshot() {
+        this.cache.clear(this.version.getAndIncrement());
+        final SharedSnapshot current = this.snapshot;
+        this.snapshot = null;
+        if (current != null) current.release();
     }
 }
@@ -1,33 +1,118 @@
 package org.neo4j.index.mapdb.provider;
 
+import java.util.Iterator;
 import java.util.Set;
 
-import org.mapdb.BTreeMap;
-import org.neo4j.collection.primitive.PrimitiveLongCollections;
 import org.neo4j.collection.primitive.PrimitiveLongIterator;
 import org.neo4j.kernel.api.exceptions.index.IndexNotFoundKernelException;
 import org.neo4j.kernel.api.index.IndexReader;
 import org.neo4j.register.Register;
 
 public class MapDbIndexReader implements IndexReader {
-    
-    private static final long[] EMPTY_LONGS = new long[0];
-    private BTreeMap<Object, long[]> snapshot;
 
-    MapDbIndexReader(final BTreeMap<Object, long[]> snapshot) {
-        this.snapshot = snapshot;
+    private SharedSnapshot shared;
+
+    private PostingTree snapshot;
+
+    private final IndexMetrics metrics;
+
+    private final PostingListCache cache;
+
+    /**
+     * @param shared an acquired snapshot, released again by {@link #close()}
+     */
+    MapDbIndexReader(final SharedSnapshot shared, final IndexMetrics metrics, final PostingListCache cache) {
+        this.shared = shared;
+        this.snapshot = shared.tree();
+        this.metrics = metrics;
+        this.cache = cache;
     }
 
+    /**
+     * A posting list of one block is cached as it is decoded, one of several blocks is streamed block by block:
+     * a consumer that stops early has read at most one block beyond what it used.
+     *
+     * @return the ids of all nodes indexed with {@code value} or an equal number of another type, in ascending order
+     */
     @Override
     public PrimitiveLongIterator lookup(final Object value) {
-        final long[] result = snapshot.get(value);
-        return PrimitiveLongCollections.iterator(result == null || result.length==0 ? EMPTY_LONGS : result);
+        final long start = System.nanoTime();
+        final PrimitiveLongIterator result = this.postingList(PropertyKeys.encode(value));
+        this.metrics.lookup.recordSince(start);
+        return result;
     }
-    
+
+    private PrimitiveLongIterator postingList(final byte[] value) {
+        final PostingBitmap cached = this.cache.get(value, this.shared.version());
+        if (cached != null) return cached.iterator();
+        final Iterator<PostingBitmap> blocks = this.snapshot.blocks(value);
+        final PostingBitmap first = blocks.hasNext() ? blocks.next() : PostingBitmap.EMPTY;
+        if (blocks.hasNext()) return new PostingListsIterator(first, blocks);
+        this.cache.put(value, this.shared.version(), first);
+        return first.iterator();
+    }
+
+    /**
+     * Seeks all nodes with a numeric value in the range, whatever its numeric type.
+     * A {@code null} bound leaves that side of the range open.
+     */
+    public PrimitiveLongIterator rangeSeekByNumber(final Number lower, final boolean includeLower,
+                                                   final Number upper, final boolean includeUpper) {
+        return this.seek(lower == null ? PropertyKeys.startOf(PropertyKeys.NUMBER) : PropertyKeys.encode(lower),
+                lower == null || includeLower,
+                upper == null ? PropertyKeys.endOf(PropertyKeys.NUMBER) : PropertyKeys.encode(upper),
+                upper != null && includeUpper);
+    }
+
+    /**
+     * Seeks all nodes with a string value in the range. A {@code null} bound leaves that side of the range open.
+     */
+    public PrimitiveLongIterator rangeSeekByString(final String lower, final boolean includeLower,
+                                                   final String upper, final boolean includeUpper) {
+        return this.seek(lower == null ? PropertyKeys.startOf(PropertyKeys.STRING) : PropertyKeys.encode(lower),
+                lower == null || includeLower,
+                upper == null ? PropertyKeys.endOf(PropertyKeys.STRING) : PropertyKeys.encode(upper),
+                upper != null && includeUpper);
+    }
+
+    /**
+     * Seeks all nodes with a string value starting with {@code prefix}.
+     */
+    public PrimitiveLongIterator rangeSeekByPrefix(final String prefix) {
+        // the keys of strings starting with the prefix start with its key, less the end byte
+        final byte[] from = PropertyKeys.prefixOf(prefix);
+        return this.seek(from, true, PropertyKeys.successorOf(from), false);
+    }
+
+    private PrimitiveLongIterator seek(final byte[] from, final boolean fromInclusive, final byte[] to, final boolean toInclusive) {
+        return new PostingListsIterator(PostingBitmap.EMPTY, this.snapshot.blocks(from, fromInclusive, to, toInclusive));
+    }
+
+    /**
+     * Reads the stored count of the value, without decoding any node ids unless it has a single block.
+     *
+     * @return number of nodes indexed with {@code value}
+     */
+    public long count(final Object value) {
+        return this.snapshot.size(PropertyKeys.encode(value));
+    }
+
+    /**
+     * @return whether any node is indexed with {@code value}, without decoding any node ids
+     */
+    public boolean exists(final Object value) {
+        return this.snapshot.exists(PropertyKeys.encode(value));
+    }
+
+    /**
+     * Decodes at most the one block the node id would be in, none if the value is not indexed.
+     */
     @Override
     public int getIndexedCount(final long nodeId, final Object propertyValue) {
-        final long[] result = snapshot.get(propertyValue);
-        return result == null ? 0 : result.length;
+        final byte[] key = PropertyKeys.encode(propertyValue);
+        final PostingBitmap cached = this.cache.get(key, this.shared.version());
+        if (cached != null) return cached.contains(nodeId) ? 1 : 0;
+        return this.snapshot.contains(key, nodeId) ? 1 : 0;
     }
 
     @Override public Set<Class> valueTypesInIndex() {
@@ -37,16 +122,26 @@ public class MapDbIndexReader implements IndexReader {
         return null;
     }
 
-    @Override public long sampleIndex(final Register.DoubleLong.Out result) throws IndexNotFoundKernelException {
-
-        // TODO
-
-        return 0;
+    /**
+     * Writes the number of distinct values and of entries at the version of the snapshot, without touching the tree.
+     *
+     * @return number of entries in the index
+     */
+    @Override
+    public long sampleIndex(final Register.DoubleLong.Out result) throws IndexNotFoundKernelException {
+        result.write(this.shared.distinctValues(), this.shared.entries());
+        return this.shared.entries();
     }
 
     @Override
     public void close() {
-        snapshot.close();
-        snapshot=null;
+        if (this.shared == null) return;
+        this.shared.release();
+        this.shared = null;
+        this.snapshot = null;
+    }
+
+    SharedSnapshot getSharedSnapshot() {
+        return this.shared;
     }
 }
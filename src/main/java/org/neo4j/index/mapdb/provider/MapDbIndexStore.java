@@ -0,0 +1,234 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Store;
+import org.neo4j.index.mapdb.MapDbIndexSettings;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.configuration.Config;
+
+/**
+ * The MapDB store of a single index, a {@link DB} in a directory of its own that is opened on first use.
+ * <p>
+ * Committing a store only affects its index, and dropping an index deletes the directory instead of clearing entries.
+ * How the {@link DB} is stored and cached is configured by {@link MapDbIndexSettings}.
+ * <p>
+ * Records rewritten or deleted leave free space behind that the store only reuses in part, {@link #compact()}
+ * rewrites the store without it.
+ */
+public class MapDbIndexStore {
+
+    private static final String STORE_FILE_NAME = "index.db";
+
+    private final File directory;
+
+    private final Config config;
+
+    private final GroupCommit groupCommit;
+
+    private DB db;
+
+    private IndexCatalog catalog;
+
+    private volatile long lastCommitNanos = System.nanoTime();
+
+    private long compactions;
+
+    private long lastCompactionSizeBefore;
+
+    private long lastCompactionSizeAfter;
+
+    public MapDbIndexStore(final File directory) {
+        this(directory, new Config());
+    }
+
+    public MapDbIndexStore(final File directory, final Config config) {
+        this.directory = directory;
+        this.config = config;
+        this.groupCommit = new GroupCommit(new Runnable() {
+            @Override
+            public void run() {
+                MapDbIndexStore.this.commitNow();
+            }
+        }, config.get(MapDbIndexSettings.group_commit_window), TimeUnit.MILLISECONDS,
+                config.get(MapDbIndexSettings.group_commit_max_batch));
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    public synchronized DB getDb() {
+        if (this.db == null) {
+            this.db = this.open();
+        }
+        return this.db;
+    }
+
+    /**
+     * @return the catalog of the index in this store
+     */
+    public synchronized IndexCatalog getCatalog() {
+        if (this.catalog == null) {
+            this.catalog = new IndexCatalog(this.getDb());
+        }
+        return this.catalog;
+    }
+
+    /**
+     * @return whether the store is open or was left on disk, so its catalog can be read without creating a store;
+     * stores kept in memory do not outlive the process
+     */
+    public synchronized boolean exists() {
+        return this.db != null || new File(this.directory, STORE_FILE_NAME).isFile();
+    }
+
+    private DB open() {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs())
+            throw new RuntimeException("Error creating directory " + this.directory + " for index store");
+        final DBMaker<?> maker = this.storage();
+        this.cache(maker);
+        if (this.config.get(MapDbIndexSettings.compression)) maker.compressionEnable();
+        if (this.config.get(MapDbIndexSettings.async_write)) {
+            maker.asyncWriteEnable()
+                    .asyncWriteQueueSize(this.config.get(MapDbIndexSettings.async_write_queue_size))
+                    .asyncWriteFlushDelay(this.config.get(MapDbIndexSettings.async_write_flush_delay));
+        }
+        return maker.snapshotEnable().closeOnJvmShutdown().make();
+    }
+
+    private DBMaker<?> storage() {
+        switch (this.config.get(MapDbIndexSettings.storage)) {
+        case mmap:
+            return DBMaker.newFileDB(new File(this.directory, STORE_FILE_NAME)).mmapFileEnableIfSupported();
+        case direct:
+            return DBMaker.newMemoryDirectDB();
+        case heap:
+            return DBMaker.newHeapDB();
+        default:
+            return DBMaker.newFileDB(new File(this.directory, STORE_FILE_NAME));
+        }
+    }
+
+    private void cache(final DBMaker<?> maker) {
+        switch (this.config.get(MapDbIndexSettings.cache_type)) {
+        case hard:
+            maker.cacheHardRefEnable();
+            break;
+        case lru:
+            maker.cacheLRUEnable();
+            break;
+        case weak:
+            maker.cacheWeakRefEnable();
+            break;
+        case soft:
+            maker.cacheSoftRefEnable();
+            break;
+        case none:
+            maker.cacheDisable();
+            return;
+        default:
+            break;
+        }
+        maker.cacheSize(this.config.get(MapDbIndexSettings.cache_size));
+    }
+
+    /**
+     * Returns once everything written before the call is committed, concurrent calls share one commit.
+     */
+    public void commit() {
+        this.groupCommit.commit();
+    }
+
+    private synchronized void commitNow() {
+        if (this.db != null) this.db.commit();
+        this.lastCommitNanos = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds since the last commit, or since the store object was created
+     */
+    long getIdleNanos() {
+        return System.nanoTime() - this.lastCommitNanos;
+    }
+
+    /**
+     * @return bytes taken by the store, 0 if it is not open; a store in memory counts its records instead
+     */
+    public synchronized long getSize() {
+        return this.db == null || this.db.isClosed() ? 0 : Store.forDB(this.db).getCurrSize();
+    }
+
+    /**
+     * @return the part of the store taken by free space, 0 if it is not open or does not track free space
+     */
+    public synchronized double getDeadSpaceRatio() {
+        if (this.db == null || this.db.isClosed()) return 0;
+        final Store store = Store.forDB(this.db);
+        final long size = store.getCurrSize();
+        return size <= 0 ? 0 : Math.max(0, (double) store.getFreeSize() / size);
+    }
+
+    /**
+     * Rewrites the committed store without its free space, in one step. Commits wait until the store is compacted.
+     * Callers make sure nothing is written to the store meanwhile, see {@link MapDbIndex#compact()}.
+     *
+     * @return whether the store was compacted, not if it is not open
+     */
+    synchronized boolean compact() {
+        if (this.db == null || this.db.isClosed()) return false;
+        final Store store = Store.forDB(this.db);
+        final long before = store.getCurrSize();
+        this.db.compact();
+        this.compactions++;
+        this.lastCompactionSizeBefore = before;
+        this.lastCompactionSizeAfter = store.getCurrSize();
+        return true;
+    }
+
+    synchronized long getCompactions() {
+        return this.compactions;
+    }
+
+    synchronized long getLastCompactionSizeBefore() {
+        return this.lastCompactionSizeBefore;
+    }
+
+    synchronized long getLastCompactionSizeAfter() {
+        return this.lastCompactionSizeAfter;
+    }
+
+    GroupCommit getGroupCommit() {
+        return this.groupCommit;
+    }
+
+    public synchronized void close() {
+        if (this.db == null) return;
+        if (!this.db.isClosed()) {
+            this.db.commit();
+            this.db.close();
+        }
+        this.db = null;
+        this.catalog = null;
+    }
+
+    /**
+     * Closes the store and deletes its directory, the next {@link #getDb()} starts with an empty store.
+     */
+    public synchronized void delete() {
+        if (this.db != null) {
+            if (!this.db.isClosed()) this.db.close();
+            this.db = null;
+            this.catalog = null;
+        }
+        try {
+            FileUtils.deleteRecursively(this.directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Error deleting index store " + this.directory, e);
+        }
+    }
+}
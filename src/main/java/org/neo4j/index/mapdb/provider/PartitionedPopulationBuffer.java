@@ -0,0 +1,221 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.mapdb.Fun;
+import org.mapdb.Pump;
+
+/**
+ * Spreads the (value, nodeId) pairs of an index population over {@link PopulationBuffer}s that sort and spill
+ * them on threads of their own. Pairs are partitioned by the hash of their value, so all nodes of a value end up
+ * in the same partition and the partitions hold disjoint values.
+ * <p>
+ * Pairs are handed over in chunks through bounded queues, the scanning thread blocks when a worker falls behind.
+ * {@link #sortedEntries()} waits for the workers and merges the sorted partitions into one stream in the order
+ * MapDB's {@link Pump} expects. A single partition is sorted in the calling thread, without a worker.
+ */
+class PartitionedPopulationBuffer implements Closeable {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private static final int QUEUED_CHUNKS = 4;
+
+    /**
+     * Tells a worker that no more chunks follow, compared by identity.
+     */
+    private static final List<Fun.Tuple2<byte[], Long>> END = new ArrayList<>(0);
+
+    private static final Comparator<Fun.Tuple2<byte[], long[]>> DESCENDING = new Comparator<Fun.Tuple2<byte[], long[]>>() {
+        @Override
+        public int compare(final Fun.Tuple2<byte[], long[]> first, final Fun.Tuple2<byte[], long[]> second) {
+            return PropertyKeyComparator.INSTANCE.compare(second.a, first.a);
+        }
+    };
+
+    private final PopulationBuffer[] partitions;
+
+    private final Worker[] workers;
+
+    private boolean finished;
+
+    /**
+     * @param batchSize number of pairs all partitions together hold in memory before spilling
+     * @param threads number of partitions, each sorted by a worker thread if more than one
+     */
+    PartitionedPopulationBuffer(final File spillDirectory, final int batchSize, final int threads) {
+        this.partitions = new PopulationBuffer[Math.max(1, threads)];
+        for (int i = 0; i < this.partitions.length; i++) {
+            this.partitions[i] = new PopulationBuffer(spillDirectory, Math.max(1, batchSize / this.partitions.length));
+        }
+        this.workers = new Worker[this.partitions.length > 1 ? this.partitions.length : 0];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(this.partitions[i], spillDirectory.getName() + "-" + i);
+            this.workers[i].start();
+        }
+    }
+
+    public void add(final byte[] value, final long nodeId) throws IOException {
+        if (this.workers.length == 0) {
+            this.partitions[0].add(value, nodeId);
+            return;
+        }
+        final int hash = LockStripes.hash(value);
+        final Worker worker = this.workers[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % this.workers.length];
+        worker.chunk.add(Fun.t2(value, nodeId));
+        if (worker.chunk.size() == CHUNK_SIZE) {
+            worker.handOver(worker.chunk);
+            worker.chunk = new ArrayList<>(CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * @return all buffered values with their posting lists, values in descending order, node ids ascending
+     */
+    public Iterator<Fun.Tuple2<byte[], long[]>> sortedEntries() throws IOException {
+        this.finish();
+        if (this.partitions.length == 1) return this.partitions[0].sortedEntries();
+        final Iterator<?>[] sources = new Iterator<?>[this.partitions.length];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = this.partitions[i].sortedEntries();
+        }
+        return Pump.<Fun.Tuple2<byte[], long[]>>sort(DESCENDING, false, sources);
+    }
+
+    /**
+     * Hands the last chunks over and waits until the workers have sorted everything, the pairs they still hold
+     * in memory included, so the partitions are only merged here.
+     */
+    private void finish() throws IOException {
+        if (this.finished) return;
+        this.finished = true;
+        for (final Worker worker : this.workers) {
+            if (!worker.chunk.isEmpty()) worker.handOver(worker.chunk);
+            worker.handOver(END);
+        }
+        for (final Worker worker : this.workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for index population to be sorted");
+            }
+            worker.checkFailure();
+        }
+    }
+
+    /**
+     * @return number of distinct (value, nodeId) pairs that {@link #sortedEntries()} has returned so far
+     */
+    public long sortedEntryCount() {
+        long count = 0;
+        for (final PopulationBuffer partition : this.partitions) {
+            count += partition.sortedEntryCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return number of posting lists that {@link #sortedEntries()} has returned so far
+     */
+    public long sortedValueCount() {
+        long count = 0;
+        for (final PopulationBuffer partition : this.partitions) {
+            count += partition.sortedValueCount();
+        }
+        return count;
+    }
+
+    /**
+     * Stops the workers of an unfinished population before deleting the spill files.
+     */
+    @Override
+    public void close() {
+        for (final Worker worker : this.workers) {
+            worker.interrupt();
+        }
+        for (final Worker worker : this.workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        for (final PopulationBuffer partition : this.partitions) {
+            partition.close();
+        }
+    }
+
+    /**
+     * Adds the chunks handed over to its partition, then sorts the pairs the partition holds in memory.
+     * After a failure it keeps taking chunks without adding them, so the scanning thread does not block,
+     * and the failure is rethrown to it.
+     */
+    private static final class Worker extends Thread {
+        private final PopulationBuffer partition;
+        private final BlockingQueue<List<Fun.Tuple2<byte[], Long>>> chunks = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+        private List<Fun.Tuple2<byte[], Long>> chunk = new ArrayList<>(CHUNK_SIZE);
+        private volatile Throwable failure;
+
+        Worker(final PopulationBuffer partition, final String name) {
+            super("mapdb-index-population-" + name);
+            this.partition = partition;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final List<Fun.Tuple2<byte[], Long>> chunk = this.chunks.take();
+                    if (this.failure == null) this.add(chunk);
+                    if (chunk == END) return;
+                }
+            } catch (InterruptedException e) {
+                // closed before the population finished
+            }
+        }
+
+        private void add(final List<Fun.Tuple2<byte[], Long>> chunk) {
+            try {
+                if (chunk == END) {
+                    this.partition.sortBatch();
+                    return;
+                }
+                for (final Fun.Tuple2<byte[], Long> entry : chunk) {
+                    this.partition.add(entry.a, entry.b);
+                }
+            } catch (Throwable e) {
+                this.failure = e;
+            }
+        }
+
+        void handOver(final List<Fun.Tuple2<byte[], Long>> chunk) throws IOException {
+            this.checkFailure();
+            try {
+                this.chunks.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted handing entries over to index population");
+            }
+        }
+
+        void checkFailure() throws IOException {
+            final Throwable failure = this.failure;
+            if (failure == null) return;
+            if (failure instanceof IOException) throw (IOException) failure;
+            throw new IOException("Error sorting index population", failure);
+        }
+    }
+}
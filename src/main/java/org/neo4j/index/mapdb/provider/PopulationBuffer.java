@@ -0,0 +1,252 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Fun;
+import org.mapdb.Pump;
+
+/**
+ * Collects the (value, nodeId) pairs of an index population, values encoded by {@link PropertyKeys}, so the tree can be built bottom-up in one pass.
+ * <p>
+ * Pairs are held in memory up to {@code batchSize}, then sorted and spilled to a file in {@code spillDirectory}.
+ * {@link #sortedEntries()} merges the in-memory batch with all spill files and groups the pairs into posting lists,
+ * in the reverse key order that MapDB's {@link Pump} expects when building a tree.
+ * A buffer sorted {@link #BY_NODE_DESCENDING} instead hands out the pairs in the order the node values tree is pumped from.
+ */
+class PopulationBuffer implements Closeable {
+
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    private static final Comparator<Fun.Tuple2<byte[], Long>> DESCENDING = new Comparator<Fun.Tuple2<byte[], Long>>() {
+        @Override
+        public int compare(final Fun.Tuple2<byte[], Long> first, final Fun.Tuple2<byte[], Long> second) {
+            final int result = PropertyKeyComparator.INSTANCE.compare(second.a, first.a);
+            return result != 0 ? result : Long.compare(second.b, first.b);
+        }
+    };
+
+    /**
+     * Orders pairs by node id only, descending.
+     */
+    static final Comparator<Fun.Tuple2<byte[], Long>> BY_NODE_DESCENDING = new Comparator<Fun.Tuple2<byte[], Long>>() {
+        @Override
+        public int compare(final Fun.Tuple2<byte[], Long> first, final Fun.Tuple2<byte[], Long> second) {
+            return Long.compare(second.b, first.b);
+        }
+    };
+
+    private final File spillDirectory;
+    private final int batchSize;
+    private final Comparator<Fun.Tuple2<byte[], Long>> order;
+    private final List<File> spillFiles = new ArrayList<>();
+    private final List<Closeable> openReaders = new ArrayList<>();
+    private List<Fun.Tuple2<byte[], Long>> batch;
+    private boolean batchSorted;
+    private long sortedEntryCount;
+    private long sortedValueCount;
+
+    PopulationBuffer(final File spillDirectory, final int batchSize) {
+        this(spillDirectory, batchSize, DESCENDING);
+    }
+
+    /**
+     * @param order the order {@link #sortedPairs()} returns the pairs in
+     */
+    PopulationBuffer(final File spillDirectory, final int batchSize, final Comparator<Fun.Tuple2<byte[], Long>> order) {
+        this.spillDirectory = spillDirectory;
+        this.batchSize = batchSize;
+        this.order = order;
+        this.batch = new ArrayList<>(Math.min(batchSize, IO_BUFFER_SIZE));
+    }
+
+    public void add(final byte[] value, final long nodeId) throws IOException {
+        this.batch.add(Fun.t2(value, nodeId));
+        this.batchSorted = false;
+        if (this.batch.size() >= this.batchSize) {
+            this.spill();
+        }
+    }
+
+    private void spill() throws IOException {
+        this.sortBatch();
+        final File file = File.createTempFile("population-", ".spill", this.spillDirectory);
+        this.spillFiles.add(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), IO_BUFFER_SIZE))) {
+            DataOutput2.packInt(out, this.batch.size());
+            for (final Fun.Tuple2<byte[], Long> entry : this.batch) {
+                DataOutput2.packInt(out, entry.a.length);
+                out.write(entry.a);
+                DataOutput2.packLong(out, entry.b);
+            }
+        }
+        this.batch = new ArrayList<>(Math.min(this.batchSize, IO_BUFFER_SIZE));
+    }
+
+    /**
+     * @return all buffered values with their posting lists, values in descending order, node ids ascending
+     */
+    public Iterator<Fun.Tuple2<byte[], long[]>> sortedEntries() throws IOException {
+        this.sortedEntryCount = 0;
+        this.sortedValueCount = 0;
+        return new PostingListIterator(this.sortedPairs());
+    }
+
+    /**
+     * Sorts the pairs held in memory, unless they are sorted already. Called ahead of {@link #sortedPairs()}
+     * by a thread of its own, it takes the sorting off the thread that merges the pairs.
+     */
+    void sortBatch() {
+        if (this.batchSorted) return;
+        Collections.sort(this.batch, this.order);
+        this.batchSorted = true;
+    }
+
+    /**
+     * @return all buffered pairs in the order of the buffer, duplicates included
+     */
+    public Iterator<Fun.Tuple2<byte[], Long>> sortedPairs() throws IOException {
+        this.sortBatch();
+        if (this.spillFiles.isEmpty()) return this.batch.iterator();
+        final Iterator<?>[] sources = new Iterator<?>[this.spillFiles.size() + 1];
+        sources[0] = this.batch.iterator();
+        for (int i = 0; i < this.spillFiles.size(); i++) {
+            sources[i + 1] = new SpillFileIterator(this.spillFiles.get(i));
+        }
+        return Pump.<Fun.Tuple2<byte[], Long>>sort(this.order, false, sources);
+    }
+
+    /**
+     * @return number of distinct (value, nodeId) pairs that {@link #sortedEntries()} has returned so far
+     */
+    public long sortedEntryCount() {
+        return this.sortedEntryCount;
+    }
+
+    /**
+     * @return number of posting lists that {@link #sortedEntries()} has returned so far
+     */
+    public long sortedValueCount() {
+        return this.sortedValueCount;
+    }
+
+    @Override
+    public void close() {
+        for (final Closeable reader : this.openReaders) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing to do, the file is deleted below
+            }
+        }
+        this.openReaders.clear();
+        for (final File file : this.spillFiles) {
+            file.delete();
+        }
+        this.spillFiles.clear();
+        this.batch = new ArrayList<>();
+        this.batchSorted = false;
+    }
+
+    private class SpillFileIterator implements Iterator<Fun.Tuple2<byte[], Long>> {
+        private final DataInputStream in;
+        private int remaining;
+
+        SpillFileIterator(final File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+            PopulationBuffer.this.openReaders.add(this.in);
+            this.remaining = DataInput2.unpackInt(this.in);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.remaining > 0;
+        }
+
+        @Override
+        public Fun.Tuple2<byte[], Long> next() {
+            if (this.remaining == 0) throw new NoSuchElementException();
+            try {
+                final byte[] value = new byte[DataInput2.unpackInt(this.in)];
+                this.in.readFully(value);
+                final long nodeId = DataInput2.unpackLong(this.in);
+                if (--this.remaining == 0) this.in.close();
+                return Fun.t2(value, nodeId);
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading population spill file", e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Groups consecutive pairs with the same value into one posting list.
+     * Node ids arrive in descending order and are filled in from the end of the list.
+     */
+    private class PostingListIterator implements Iterator<Fun.Tuple2<byte[], long[]>> {
+        private final Iterator<Fun.Tuple2<byte[], Long>> pairs;
+        private Fun.Tuple2<byte[], Long> pending;
+        private long[] nodes = new long[16];
+
+        PostingListIterator(final Iterator<Fun.Tuple2<byte[], Long>> pairs) {
+            this.pairs = pairs;
+            this.pending = pairs.hasNext() ? pairs.next() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.pending != null;
+        }
+
+        @Override
+        public Fun.Tuple2<byte[], long[]> next() {
+            if (this.pending == null) throw new NoSuchElementException();
+            final byte[] value = this.pending.a;
+            int count = 0;
+            long last = -1;
+            while (this.pending != null && Arrays.equals(value, this.pending.a)) {
+                final long nodeId = this.pending.b;
+                if (count == 0 || nodeId != last) {
+                    if (count == this.nodes.length) {
+                        this.nodes = Arrays.copyOf(this.nodes, count * 2);
+                    }
+                    this.nodes[count++] = nodeId;
+                    last = nodeId;
+                }
+                this.pending = this.pairs.hasNext() ? this.pairs.next() : null;
+            }
+            final long[] postingList = new long[count];
+            for (int i = 0; i < count; i++) {
+                postingList[i] = this.nodes[count - 1 - i];
+            }
+            PopulationBuffer.this.sortedEntryCount += count;
+            PopulationBuffer.this.sortedValueCount++;
+            return Fun.t2(value, postingList);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+/**
+ * An immutable sorted set of node ids that picks its representation by how dense the ids are.
+ * <p>
+ * Like a roaring bitmap, the ids are grouped into containers by their upper 48 bits. A container holds the lower
+ * 16 bits either as a sorted {@code char[]} or as a bitmap of the words between its lowest and highest id,
+ * whichever is smaller: dense ids take a bit each instead of eight bytes. Ids spread so thinly that containers
+ * would hold fewer than {@value #MIN_CONTAINER_AVERAGE} ids on average are kept as a plain sorted {@code long[]}.
+ */
+final class PostingBitmap {
+
+    static final PostingBitmap EMPTY = new PostingBitmap(PostingLists.EMPTY);
+
+    private static final int MIN_CONTAINER_AVERAGE = 4;
+
+    private static final int SPARSE = 0;
+
+    private static final int CONTAINERS = 1;
+
+    /**
+     * The ids if they are too sparse for containers, {@code null} otherwise.
+     */
+    private final long[] sparse;
+
+    /**
+     * Upper 48 bits of the ids of each container, ascending.
+     */
+    private final long[] keys;
+
+    /**
+     * A {@code char[]} of sorted lower bits or a {@link Bitmap} per key.
+     */
+    private final Object[] containers;
+
+    private final int cardinality;
+
+    private PostingBitmap(final long[] sparse) {
+        this.sparse = sparse;
+        this.keys = null;
+        this.containers = null;
+        this.cardinality = sparse.length;
+    }
+
+    private PostingBitmap(final long[] keys, final Object[] containers, final int cardinality) {
+        this.sparse = null;
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @param nodeIds sorted, distinct node ids, kept as they are if sparse and then must not be modified
+     */
+    static PostingBitmap of(final long[] nodeIds) {
+        if (nodeIds.length == 0) return EMPTY;
+        int count = 1;
+        for (int i = 1; i < nodeIds.length; i++) {
+            if (key(nodeIds[i]) != key(nodeIds[i - 1])) count++;
+        }
+        if ((long) count * MIN_CONTAINER_AVERAGE > nodeIds.length) return new PostingBitmap(nodeIds);
+        return grouped(nodeIds, count);
+    }
+
+    /**
+     * Groups the ids into containers however sparse they are.
+     *
+     * @param count number of containers the ids fall into
+     */
+    private static PostingBitmap grouped(final long[] nodeIds, final int count) {
+        final long[] keys = new long[count];
+        final Object[] containers = new Object[count];
+        int from = 0;
+        for (int c = 0; c < count; c++) {
+            final long key = key(nodeIds[from]);
+            int to = from + 1;
+            while (to < nodeIds.length && key(nodeIds[to]) == key) to++;
+            keys[c] = key;
+            containers[c] = container(nodeIds, from, to);
+            from = to;
+        }
+        return new PostingBitmap(keys, containers, nodeIds.length);
+    }
+
+    private static long key(final long nodeId) {
+        return nodeId >>> 16;
+    }
+
+    private static char low(final long nodeId) {
+        return (char) nodeId;
+    }
+
+    /**
+     * Containers built by merging others go through the same choice, so a bitmap is represented the same way
+     * whether it was made from its ids or merged.
+     *
+     * @return containers from the given keys and containers, {@code null} ones left out
+     */
+    private static PostingBitmap of(final long[] keys, final Object[] containers, final int length) {
+        int count = 0;
+        int cardinality = 0;
+        for (int c = 0; c < length; c++) {
+            if (containers[c] == null) continue;
+            keys[count] = keys[c];
+            containers[count++] = containers[c];
+            cardinality += cardinality(containers[c]);
+        }
+        if (count == 0) return EMPTY;
+        final PostingBitmap result = new PostingBitmap(Arrays.copyOf(keys, count), Arrays.copyOf(containers, count), cardinality);
+        return (long) count * MIN_CONTAINER_AVERAGE > cardinality ? new PostingBitmap(result.toArray()) : result;
+    }
+
+    /**
+     * @return whether a container of {@code count} ids spread over {@code words} words is smaller as a bitmap
+     */
+    private static boolean dense(final int words, final int count) {
+        return words * 8L < count * 2L;
+    }
+
+    private static Object container(final long[] nodeIds, final int from, final int to) {
+        final int firstWord = low(nodeIds[from]) >>> 6;
+        final int words = (low(nodeIds[to - 1]) >>> 6) - firstWord + 1;
+        if (dense(words, to - from)) {
+            final long[] bits = new long[words];
+            for (int i = from; i < to; i++) {
+                final int low = low(nodeIds[i]);
+                bits[(low >>> 6) - firstWord] |= 1L << low;
+            }
+            return new Bitmap(firstWord, bits, to - from);
+        }
+        final char[] lows = new char[to - from];
+        for (int i = from; i < to; i++) {
+            lows[i - from] = low(nodeIds[i]);
+        }
+        return lows;
+    }
+
+    /**
+     * @param lows sorted lower bits, of which the first {@code count} are used
+     * @return the container that holds them, {@code null} if there are none
+     */
+    private static Object container(final char[] lows, final int count) {
+        if (count == 0) return null;
+        final int firstWord = lows[0] >>> 6;
+        final int words = (lows[count - 1] >>> 6) - firstWord + 1;
+        if (!dense(words, count)) return count == lows.length ? lows : Arrays.copyOf(lows, count);
+        final long[] bits = new long[words];
+        for (int i = 0; i < count; i++) {
+            bits[(lows[i] >>> 6) - firstWord] |= 1L << lows[i];
+        }
+        return new Bitmap(firstWord, bits, count);
+    }
+
+    /**
+     * @param bits words from {@code firstWord} on, possibly with empty words at either end
+     * @return the container that holds the set bits, {@code null} if there are none
+     */
+    private static Object container(final int firstWord, final long[] bits) {
+        int from = 0;
+        int to = bits.length;
+        while (from < to && bits[from] == 0) from++;
+        while (to > from && bits[to - 1] == 0) to--;
+        int count = 0;
+        for (int word = from; word < to; word++) {
+            count += Long.bitCount(bits[word]);
+        }
+        if (count == 0) return null;
+        if (dense(to - from, count)) {
+            return new Bitmap(firstWord + from, from == 0 && to == bits.length ? bits : Arrays.copyOfRange(bits, from, to), count);
+        }
+        final char[] lows = new char[count];
+        int n = 0;
+        for (int word = from; word < to; word++) {
+            long remaining = bits[word];
+            while (remaining != 0) {
+                lows[n++] = (char) (((firstWord + word) << 6) | Long.numberOfTrailingZeros(remaining));
+                remaining &= remaining - 1;
+            }
+        }
+        return lows;
+    }
+
+    private static int cardinality(final Object container) {
+        return container instanceof char[] ? ((char[]) container).length : ((Bitmap) container).cardinality;
+    }
+
+    private static int firstWord(final Object container) {
+        return container instanceof char[] ? ((char[]) container)[0] >>> 6 : ((Bitmap) container).firstWord;
+    }
+
+    private static int lastWord(final Object container) {
+        if (container instanceof char[]) {
+            final char[] lows = (char[]) container;
+            return lows[lows.length - 1] >>> 6;
+        }
+        final Bitmap bitmap = (Bitmap) container;
+        return bitmap.firstWord + bitmap.bits.length - 1;
+    }
+
+    int cardinality() {
+        return this.cardinality;
+    }
+
+    boolean isEmpty() {
+        return this.cardinality == 0;
+    }
+
+    /**
+     * @return whether the ids are kept as a plain {@code long[]}
+     */
+    boolean isSparse() {
+        return this.sparse != null;
+    }
+
+    boolean contains(final long nodeId) {
+        if (this.sparse != null) return Arrays.binarySearch(this.sparse, nodeId) >= 0;
+        final int index = Arrays.binarySearch(this.keys, key(nodeId));
+        return index >= 0 && containerContains(this.containers[index], low(nodeId));
+    }
+
+    private static boolean containerContains(final Object container, final char low) {
+        if (container instanceof char[]) return Arrays.binarySearch((char[]) container, low) >= 0;
+        return ((Bitmap) container).contains(low);
+    }
+
+    /**
+     * @return the ids in ascending order, the array the bitmap was made of if it is sparse, which must not be modified
+     */
+    long[] toArray() {
+        if (this.sparse != null) return this.sparse;
+        final long[] result = new long[this.cardinality];
+        final PrimitiveLongIterator nodeIds = this.iterator();
+        for (int i = 0; i < result.length; i++) {
+            result[i] = nodeIds.next();
+        }
+        return result;
+    }
+
+    PrimitiveLongIterator iterator() {
+        if (this.sparse != null) return PrimitiveLongCollections.iterator(this.sparse);
+        return new ContainerIterator();
+    }
+
+    /**
+     * @return this bitmap, or one with the same ids in containers if it is sparse
+     */
+    private PostingBitmap grouped() {
+        if (this.sparse == null) return this;
+        int count = 1;
+        for (int i = 1; i < this.sparse.length; i++) {
+            if (key(this.sparse[i]) != key(this.sparse[i - 1])) count++;
+        }
+        return grouped(this.sparse, count);
+    }
+
+    /**
+     * Merges container by container: sorted lower bits are merged, bitmaps are or-ed word by word and lower bits
+     * are set in a bitmap. Containers of keys only one side has are taken over as they are.
+     *
+     * @return the ids in this bitmap or the other one
+     */
+    PostingBitmap or(final PostingBitmap other) {
+        if (other.isEmpty()) return this;
+        if (this.isEmpty()) return other;
+        final PostingBitmap first = this.grouped();
+        final PostingBitmap second = other.grouped();
+        final long[] keys = new long[first.keys.length + second.keys.length];
+        final Object[] containers = new Object[keys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.keys.length || j < second.keys.length) {
+            if (j == second.keys.length || (i < first.keys.length && first.keys[i] < second.keys[j])) {
+                keys[count] = first.keys[i];
+                containers[count++] = first.containers[i++];
+            } else if (i == first.keys.length || first.keys[i] > second.keys[j]) {
+                keys[count] = second.keys[j];
+                containers[count++] = second.containers[j++];
+            } else {
+                keys[count] = first.keys[i];
+                containers[count++] = or(first.containers[i++], second.containers[j++]);
+            }
+        }
+        return of(keys, containers, count);
+    }
+
+    private static Object or(final Object first, final Object second) {
+        if (first instanceof char[] && second instanceof char[]) {
+            final char[] a = (char[]) first;
+            final char[] b = (char[]) second;
+            final char[] result = new char[a.length + b.length];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < a.length || j < b.length) {
+                if (j == b.length || (i < a.length && a[i] < b[j])) {
+                    result[count++] = a[i++];
+                } else {
+                    if (i < a.length && a[i] == b[j]) i++;
+                    result[count++] = b[j++];
+                }
+            }
+            return container(result, count);
+        }
+        final int firstWord = Math.min(firstWord(first), firstWord(second));
+        final long[] bits = new long[Math.max(lastWord(first), lastWord(second)) - firstWord + 1];
+        setBits(first, firstWord, bits);
+        setBits(second, firstWord, bits);
+        return container(firstWord, bits);
+    }
+
+    private static void setBits(final Object container, final int firstWord, final long[] bits) {
+        if (container instanceof char[]) {
+            for (final char low : (char[]) container) {
+                bits[(low >>> 6) - firstWord] |= 1L << low;
+            }
+        } else {
+            final Bitmap bitmap = (Bitmap) container;
+            for (int word = 0; word < bitmap.bits.length; word++) {
+                bits[bitmap.firstWord + word - firstWord] |= bitmap.bits[word];
+            }
+        }
+    }
+
+    /**
+     * Intersects container by container: sorted lower bits are merged, bitmaps are and-ed word by word over the
+     * words both cover and lower bits are looked up in a bitmap. Containers of keys only one side has are skipped.
+     *
+     * @return the ids in both this bitmap and the other one
+     */
+    PostingBitmap and(final PostingBitmap other) {
+        if (this.isEmpty() || other.isEmpty()) return EMPTY;
+        final PostingBitmap first = this.grouped();
+        final PostingBitmap second = other.grouped();
+        final long[] keys = new long[Math.min(first.keys.length, second.keys.length)];
+        final Object[] containers = new Object[keys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.keys.length && j < second.keys.length) {
+            if (first.keys[i] < second.keys[j]) {
+                i++;
+            } else if (first.keys[i] > second.keys[j]) {
+                j++;
+            } else {
+                keys[count] = first.keys[i];
+                containers[count++] = and(first.containers[i++], second.containers[j++]);
+            }
+        }
+        return of(keys, containers, count);
+    }
+
+    private static Object and(final Object first, final Object second) {
+        if (first instanceof Bitmap && second instanceof Bitmap) {
+            final Bitmap a = (Bitmap) first;
+            final Bitmap b = (Bitmap) second;
+            final int from = Math.max(a.firstWord, b.firstWord);
+            final int to = Math.min(a.firstWord + a.bits.length, b.firstWord + b.bits.length);
+            if (from >= to) return null;
+            final long[] bits = new long[to - from];
+            for (int word = from; word < to; word++) {
+                bits[word - from] = a.bits[word - a.firstWord] & b.bits[word - b.firstWord];
+            }
+            return container(from, bits);
+        }
+        if (first instanceof char[] && second instanceof char[]) {
+            final char[] a = (char[]) first;
+            final char[] b = (char[]) second;
+            final char[] result = new char[Math.min(a.length, b.length)];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[count++] = a[i++];
+                    j++;
+                }
+            }
+            return container(result, count);
+        }
+        final char[] lows = (char[]) (first instanceof char[] ? first : second);
+        final Bitmap bitmap = (Bitmap) (first instanceof char[] ? second : first);
+        final char[] result = new char[lows.length];
+        int count = 0;
+        for (final char low : lows) {
+            if (bitmap.contains(low)) result[count++] = low;
+        }
+        return container(result, count);
+    }
+
+    void write(final DataOutput out) throws IOException {
+        if (this.sparse != null) {
+            out.write(SPARSE);
+            PostingListSerializer.INSTANCE.serialize(out, this.sparse);
+            return;
+        }
+        out.write(CONTAINERS);
+        VarLongs.write(out, this.keys.length);
+        long previousKey = 0;
+        for (int c = 0; c < this.keys.length; c++) {
+            VarLongs.write(out, this.keys[c] - previousKey);
+            previousKey = this.keys[c];
+            if (this.containers[c] instanceof char[]) {
+                final char[] lows = (char[]) this.containers[c];
+                VarLongs.write(out, (long) lows.length << 1);
+                int previous = 0;
+                for (final char low : lows) {
+                    VarLongs.write(out, low - previous);
+                    previous = low;
+                }
+            } else {
+                final Bitmap bitmap = (Bitmap) this.containers[c];
+                VarLongs.write(out, ((long) bitmap.bits.length << 1) | 1);
+                VarLongs.write(out, bitmap.firstWord);
+                for (final long bits : bitmap.bits) {
+                    out.writeLong(bits);
+                }
+            }
+        }
+    }
+
+    static PostingBitmap read(final DataInput in) throws IOException {
+        final int format = in.readUnsignedByte();
+        if (format == SPARSE) return new PostingBitmap(PostingListSerializer.INSTANCE.deserialize(in, -1));
+        if (format != CONTAINERS) throw new IOException("Unknown posting list format " + format);
+        final int count = (int) VarLongs.read(in);
+        final long[] keys = new long[count];
+        final Object[] containers = new Object[count];
+        int cardinality = 0;
+        long key = 0;
+        for (int c = 0; c < count; c++) {
+            key += VarLongs.read(in);
+            keys[c] = key;
+            final long header = VarLongs.read(in);
+            final int size = (int) (header >>> 1);
+            if ((header & 1) == 0) {
+                final char[] lows = new char[size];
+                int low = 0;
+                for (int i = 0; i < size; i++) {
+                    low += (int) VarLongs.read(in);
+                    lows[i] = (char) low;
+                }
+                containers[c] = lows;
+                cardinality += size;
+            } else {
+                final int firstWord = (int) VarLongs.read(in);
+                final long[] bits = new long[size];
+                int bitCount = 0;
+                for (int i = 0; i < size; i++) {
+                    bits[i] = in.readLong();
+                    bitCount += Long.bitCount(bits[i]);
+                }
+                containers[c] = new Bitmap(firstWord, bits, bitCount);
+                cardinality += bitCount;
+            }
+        }
+        return new PostingBitmap(keys, containers, cardinality);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) return true;
+        if (!(other instanceof PostingBitmap) || ((PostingBitmap) other).cardinality != this.cardinality) return false;
+        return Arrays.equals(this.toArray(), ((PostingBitmap) other).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(this.toArray());
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.toArray());
+    }
+
+    /**
+     * The bits of the lower 16 bits of the ids from word {@code firstWord} on.
+     */
+    private static final class Bitmap {
+        private final int firstWord;
+        private final long[] bits;
+        private final int cardinality;
+
+        Bitmap(final int firstWord, final long[] bits, final int cardinality) {
+            this.firstWord = firstWord;
+            this.bits = bits;
+            this.cardinality = cardinality;
+        }
+
+        boolean contains(final char low) {
+            final int word = (low >>> 6) - this.firstWord;
+            return word >= 0 && word < this.bits.length && (this.bits[word] & (1L << low)) != 0;
+        }
+    }
+
+    private final class ContainerIterator extends PrimitiveLongCollections.PrimitiveLongBaseIterator {
+        private int container = -1;
+        private int position;
+        private long bits;
+        private long base;
+
+        @Override
+        protected boolean fetchNext() {
+            while (true) {
+                if (this.container >= 0) {
+                    final Object current = PostingBitmap.this.containers[this.container];
+                    if (current instanceof char[]) {
+                        final char[] lows = (char[]) current;
+                        if (this.position < lows.length) return this.next(this.base | lows[this.position++]);
+                    } else {
+                        final Bitmap bitmap = (Bitmap) current;
+                        while (this.bits == 0 && this.position < bitmap.bits.length) {
+                            this.bits = bitmap.bits[this.position++];
+                        }
+                        if (this.bits != 0) {
+                            final long word = bitmap.firstWord + this.position - 1;
+                            final long nodeId = this.base | (word << 6) | Long.numberOfTrailingZeros(this.bits);
+                            this.bits &= this.bits - 1;
+                            return this.next(nodeId);
+                        }
+                    }
+                }
+                if (++this.container == PostingBitmap.this.keys.length) return false;
+                this.base = PostingBitmap.this.keys[this.container] << 16;
+                this.position = 0;
+                this.bits = 0;
+            }
+        }
+    }
+}
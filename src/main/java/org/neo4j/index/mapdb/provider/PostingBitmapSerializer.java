@@ -0,0 +1,35 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.mapdb.Serializer;
+
+/**
+ * Stores a posting list block in the representation {@link PostingBitmap} chose for it: sparse ids as gaps
+ * like {@link PostingListSerializer}, containers as gaps of their lower bits or as the words of their bitmap.
+ */
+public final class PostingBitmapSerializer implements Serializer<PostingBitmap>, Serializable {
+
+    public static final PostingBitmapSerializer INSTANCE = new PostingBitmapSerializer();
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void serialize(final DataOutput out, final PostingBitmap nodes) throws IOException {
+        nodes.write(out);
+    }
+
+    @Override
+    public PostingBitmap deserialize(final DataInput in, final int available) throws IOException {
+        if (available == 0) return null;
+        return PostingBitmap.read(in);
+    }
+
+    @Override
+    public int fixedSize() {
+        return -1;
+    }
+}
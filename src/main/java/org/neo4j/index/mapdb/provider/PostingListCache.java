@@ -0,0 +1,149 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded posting lists of one index, shared by its readers so lookups of hot values skip deserializing them.
+ * <p>
+ * Each list is cached with the commit version of the snapshot it was read from, and is served to readers of that
+ * version or a later one. Writing a value removes its list, and until the write is committed, lists read from older
+ * snapshots are no longer admitted. So a cached list is what every snapshot it is served to holds for the value,
+ * and repeatable reads are kept.
+ * <p>
+ * The cache holds at most {@code capacity} node ids in all lists, evicting the least recently used ones.
+ * Each list counts one more than its length, so lists of absent values are bounded as well.
+ */
+final class PostingListCache {
+
+    private final long capacity;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    /**
+     * Lists read from snapshots older than this may miss a write and are not admitted.
+     */
+    private long minVersion;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity number of node ids the cached lists may hold in all, 0 disables the cache
+     */
+    PostingListCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the posting list of {@code value} in a snapshot at {@code version}, {@code null} if it is not cached
+     */
+    PostingBitmap get(final byte[] value, final long version) {
+        if (this.capacity == 0) return null;
+        final Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(new Key(value));
+        }
+        if (entry != null && entry.version <= version) {
+            this.hits.incrementAndGet();
+            return entry.nodes;
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the posting list of {@code value} read from a snapshot at {@code version}, unless it may be stale.
+     */
+    synchronized void put(final byte[] value, final long version, final PostingBitmap nodes) {
+        if (weight(nodes) > this.capacity || version < this.minVersion) return;
+        final Key key = new Key(value);
+        final Entry current = this.entries.get(key);
+        if (current != null) {
+            if (current.version >= version) return;
+            this.size -= weight(current.nodes);
+        }
+        this.entries.put(key, new Entry(nodes, version));
+        this.size += weight(nodes);
+        final Iterator<Entry> eldest = this.entries.values().iterator();
+        while (this.size > this.capacity) {
+            this.size -= weight(eldest.next().nodes);
+            eldest.remove();
+        }
+    }
+
+    private static long weight(final PostingBitmap nodes) {
+        return nodes.cardinality() + 1L;
+    }
+
+    /**
+     * Called before {@code value} is written, while the index is at {@code version}; the write becomes visible
+     * in snapshots of later versions.
+     */
+    synchronized void invalidate(final byte[] value, final long version) {
+        if (this.capacity == 0) return;
+        this.minVersion = Math.max(this.minVersion, version + 1);
+        final Entry removed = this.entries.remove(new Key(value));
+        if (removed != null) this.size -= weight(removed.nodes);
+    }
+
+    /**
+     * Drops all lists, for when the whole tree is replaced while the index is at {@code version}.
+     */
+    synchronized void clear(final long version) {
+        this.minVersion = Math.max(this.minVersion, version + 1);
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    long hits() {
+        return this.hits.get();
+    }
+
+    long misses() {
+        return this.misses.get();
+    }
+
+    synchronized long size() {
+        return this.size;
+    }
+
+    private static final class Entry {
+        private final PostingBitmap nodes;
+        private final long version;
+
+        Entry(final PostingBitmap nodes, final long version) {
+            this.nodes = nodes;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The key of a property value, compared by content.
+     */
+    private static final class Key {
+        private final byte[] value;
+        private final int hash;
+
+        Key(final byte[] value) {
+            this.value = value;
+            this.hash = LockStripes.hash(value);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Key && Arrays.equals(this.value, ((Key) other).value);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
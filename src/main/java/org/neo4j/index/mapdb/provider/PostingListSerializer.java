@@ -0,0 +1,46 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+
+import org.mapdb.Serializer;
+
+/**
+ * Stores a sorted posting list as its length, the first node id and the gaps between consecutive node ids,
+ * all variable length encoded. Dense node ids take a byte each instead of eight.
+ */
+public final class PostingListSerializer implements Serializer<long[]>, Serializable {
+
+    public static final PostingListSerializer INSTANCE = new PostingListSerializer();
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void serialize(final DataOutput out, final long[] nodes) throws IOException {
+        VarLongs.write(out, nodes.length);
+        long previous = 0;
+        for (final long nodeId : nodes) {
+            VarLongs.write(out, nodeId - previous);
+            previous = nodeId;
+        }
+    }
+
+    @Override
+    public long[] deserialize(final DataInput in, final int available) throws IOException {
+        if (available == 0) return null;
+        final long[] nodes = new long[(int) VarLongs.read(in)];
+        long previous = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            previous += VarLongs.read(in);
+            nodes[i] = previous;
+        }
+        return nodes;
+    }
+
+    @Override
+    public int fixedSize() {
+        return -1;
+    }
+}
@@ -0,0 +1,49 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.Arrays;
+
+/**
+ * Operations on posting lists, the {@code long[]} of node ids stored per property value.
+ * <p>
+ * Posting lists are kept sorted ascending by node id and free of duplicates, so a batch of changes
+ * is merged into them in one pass. Readers can rely on that order.
+ */
+final class PostingLists {
+
+    static final long[] EMPTY = new long[0];
+
+    private PostingLists() {
+    }
+
+    /**
+     * Applies a batch of changes in one pass over the list.
+     *
+     * @param insertions sorted node ids to add
+     * @param deletions sorted node ids to remove, disjoint from {@code insertions}
+     * @return the changed posting list, or {@code nodes} itself if nothing changed
+     */
+    static long[] update(final long[] nodes, final long[] insertions, final long[] deletions) {
+        final long[] current = nodes == null ? EMPTY : nodes;
+        final long[] result = new long[current.length + insertions.length];
+        boolean changed = false;
+        int i = 0, j = 0, k = 0, n = 0;
+        while (i < current.length || j < insertions.length) {
+            final long next;
+            if (j == insertions.length || (i < current.length && current[i] <= insertions[j])) {
+                next = current[i++];
+                if (j < insertions.length && insertions[j] == next) j++;
+                while (k < deletions.length && deletions[k] < next) k++;
+                if (k < deletions.length && deletions[k] == next) {
+                    changed = true;
+                    continue;
+                }
+            } else {
+                next = insertions[j++];
+                changed = true;
+            }
+            result[n++] = next;
+        }
+        if (!changed) return nodes;
+        return n == 0 ? EMPTY : Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,32 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.Iterator;
+
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+/**
+ * Streams the node ids of a sequence of posting lists, fetching the next list only when the current one is used up.
+ */
+class PostingListsIterator extends PrimitiveLongCollections.PrimitiveLongBaseIterator {
+
+    private final Iterator<PostingBitmap> postingLists;
+    private PrimitiveLongIterator current;
+
+    /**
+     * @param first the list to start with, already taken from the others
+     */
+    PostingListsIterator(final PostingBitmap first, final Iterator<PostingBitmap> postingLists) {
+        this.current = first.iterator();
+        this.postingLists = postingLists;
+    }
+
+    @Override
+    protected boolean fetchNext() {
+        while (!this.current.hasNext()) {
+            if (!this.postingLists.hasNext()) return false;
+            this.current = this.postingLists.next().iterator();
+        }
+        return this.next(this.current.next());
+    }
+}
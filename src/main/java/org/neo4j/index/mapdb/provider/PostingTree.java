@@ -0,0 +1,463 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.mapdb.BTreeMap;
+import org.mapdb.Fun;
+
+/**
+ * The posting lists of an index, split into blocks of at most {@code blockSize} node ids stored under
+ * (value, blockId) keys, so changing a list of millions of nodes rewrites one block instead of the whole list.
+ * Values are the keys {@link PropertyKeys} encodes property values into.
+ * <p>
+ * The blocks of a value are disjoint, ascending ranges of node ids. A block id is at most the smallest node id
+ * in the block and above all node ids of the block before it, so the block of a node id is the one with the
+ * greatest block id at or below it. A block that overflows is split, a block that becomes empty is removed;
+ * blocks are not merged. Each block is a {@link PostingBitmap}, so blocks of dense node ids take a bit per node.
+ * <p>
+ * The number of nodes of a value with several blocks is stored in the key of an empty count entry before its blocks,
+ * at block id {@link #COUNT} plus the number. Counting its nodes and checking whether it exists read that key only,
+ * and as values are stored outside the tree nodes, no block is decoded for it. A value with a single block has no
+ * count entry, its block holds at most {@code blockSize} nodes and is counted instead, which spares most updates of
+ * small posting lists the removal and insertion of the count entry.
+ */
+final class PostingTree {
+
+    /**
+     * Block id below all block ids, node ids are never negative.
+     */
+    private static final long FIRST = -1;
+
+    /**
+     * Block id of the count entry of a value with several blocks, minus the number of its nodes; below {@link #FIRST}.
+     */
+    private static final long COUNT = Long.MIN_VALUE;
+
+    /**
+     * Block id above all block ids.
+     */
+    private static final long LAST = Long.MAX_VALUE;
+
+    private final BTreeMap<Fun.Tuple2<byte[], Long>, PostingBitmap> blocks;
+
+    private final int blockSize;
+
+    /**
+     * Sizes of the blocks written, {@code null} if not recorded.
+     */
+    private final Histogram blockSizes;
+
+    PostingTree(final BTreeMap<Fun.Tuple2<byte[], Long>, PostingBitmap> blocks, final int blockSize, final Histogram blockSizes) {
+        this.blocks = blocks;
+        this.blockSize = blockSize;
+        this.blockSizes = blockSizes;
+    }
+
+    private static Fun.Tuple2<byte[], Long> key(final byte[] value, final long blockId) {
+        return Fun.t2(value, blockId);
+    }
+
+    private static boolean sameValue(final Fun.Tuple2<byte[], Long> key, final byte[] value) {
+        return Arrays.equals(key.a, value);
+    }
+
+    private static boolean isBlock(final Fun.Tuple2<byte[], Long> key) {
+        return key.b >= 0;
+    }
+
+    private static Fun.Tuple2<byte[], Long> countKey(final byte[] value, final long count) {
+        return key(value, COUNT + count);
+    }
+
+    /**
+     * @return the blocks of {@code value} in node id order, read as they are iterated
+     */
+    Iterator<PostingBitmap> blocks(final byte[] value) {
+        return this.blocks.subMap(key(value, FIRST), true, key(value, LAST), true).values().iterator();
+    }
+
+    /**
+     * @return the blocks of all values in the range in key order, read as they are iterated
+     */
+    Iterator<PostingBitmap> blocks(final byte[] from, final boolean fromInclusive, final byte[] to, final boolean toInclusive) {
+        final Fun.Tuple2<byte[], Long> lower = key(from, fromInclusive ? FIRST : LAST);
+        final Fun.Tuple2<byte[], Long> upper = key(to, toInclusive ? LAST : FIRST);
+        if (BlockKeyComparator.INSTANCE.compare(lower, upper) > 0) return Collections.<PostingBitmap>emptyIterator();
+        final Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> entries =
+                new BlockEntries(this.blocks.subMap(lower, true, upper, true).entrySet().iterator());
+        return new Iterator<PostingBitmap>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public PostingBitmap next() {
+                return entries.next().getValue();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return the whole posting list of {@code value}, {@code null} if it has none
+     */
+    long[] get(final byte[] value) {
+        final Iterator<PostingBitmap> blocks = this.blocks(value);
+        if (!blocks.hasNext()) return null;
+        long[] result = blocks.next().toArray();
+        int size = result.length;
+        while (blocks.hasNext()) {
+            final long[] block = blocks.next().toArray();
+            if (size + block.length > result.length) {
+                result = Arrays.copyOf(result, Math.max(result.length * 2, size + block.length));
+            }
+            System.arraycopy(block, 0, result, size, block.length);
+            size += block.length;
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Reads the key of the count entry, or the block of a value that has a single one.
+     *
+     * @return number of nodes indexed with {@code value}
+     */
+    long size(final byte[] value) {
+        final Fun.Tuple2<byte[], Long> first = this.blocks.ceilingKey(key(value, COUNT));
+        if (first == null || !sameValue(first, value)) return 0;
+        return isBlock(first) ? this.blocks.get(first).cardinality() : first.b - COUNT;
+    }
+
+    /**
+     * Reads keys only.
+     *
+     * @return whether any node is indexed with {@code value}
+     */
+    boolean exists(final byte[] value) {
+        final Fun.Tuple2<byte[], Long> first = this.blocks.ceilingKey(key(value, COUNT));
+        return first != null && sameValue(first, value);
+    }
+
+    /**
+     * @return the key of the count entry of {@code value}, {@code null} if it has at most one block
+     */
+    private Fun.Tuple2<byte[], Long> countKey(final byte[] value) {
+        final Fun.Tuple2<byte[], Long> first = this.blocks.ceilingKey(key(value, COUNT));
+        return first != null && sameValue(first, value) && !isBlock(first) ? first : null;
+    }
+
+    /**
+     * Reads keys only.
+     */
+    private boolean hasSeveralBlocks(final byte[] value) {
+        final Fun.Tuple2<byte[], Long> first = this.blocks.ceilingKey(key(value, FIRST));
+        if (first == null || !sameValue(first, value)) return false;
+        final Fun.Tuple2<byte[], Long> second = this.blocks.higherKey(first);
+        return second != null && sameValue(second, value);
+    }
+
+    /**
+     * Reads the one block the node id would be in, none if the value has no block below it.
+     */
+    boolean contains(final byte[] value, final long nodeId) {
+        final Fun.Tuple2<byte[], Long> block = this.blocks.floorKey(key(value, nodeId));
+        return block != null && sameValue(block, value) && isBlock(block) && this.blocks.get(block).contains(nodeId);
+    }
+
+    /**
+     * @return the lowest node id indexed with {@code value}, -1 if there is none
+     */
+    long first(final byte[] value) {
+        final Iterator<PostingBitmap> blocks = this.blocks(value);
+        return blocks.hasNext() ? blocks.next().iterator().next() : -1;
+    }
+
+    boolean isEmpty() {
+        return this.blocks.isEmpty();
+    }
+
+    /**
+     * @return all blocks with their (value, blockId) keys, in key order
+     */
+    Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> entries() {
+        return new BlockEntries(this.blocks.entrySet().iterator());
+    }
+
+    /**
+     * @return whole posting lists of all values in descending order, the order {@link #blocksOf} takes them in;
+     * the blocks of one value are read as it is reached
+     */
+    Iterator<Fun.Tuple2<byte[], long[]>> descendingPostingLists() {
+        final Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> entries =
+                new BlockEntries(this.blocks.descendingMap().entrySet().iterator());
+        return new Iterator<Fun.Tuple2<byte[], long[]>>() {
+            private Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> pending = entries.hasNext() ? entries.next() : null;
+
+            @Override
+            public boolean hasNext() {
+                return this.pending != null;
+            }
+
+            @Override
+            public Fun.Tuple2<byte[], long[]> next() {
+                if (this.pending == null) throw new NoSuchElementException();
+                final byte[] value = this.pending.getKey().a;
+                // the blocks of the value come last to first
+                final List<long[]> blocks = new ArrayList<>();
+                int size = 0;
+                while (this.pending != null && sameValue(this.pending.getKey(), value)) {
+                    final long[] block = this.pending.getValue().toArray();
+                    blocks.add(block);
+                    size += block.length;
+                    this.pending = entries.hasNext() ? entries.next() : null;
+                }
+                final long[] nodes = new long[size];
+                int offset = 0;
+                for (int i = blocks.size() - 1; i >= 0; i--) {
+                    final long[] block = blocks.get(i);
+                    System.arraycopy(block, 0, nodes, offset, block.length);
+                    offset += block.length;
+                }
+                return Fun.t2(value, nodes);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Applies the changes to the blocks they fall into, each changed block is read and written once.
+     * Callers serialize updates of the same value.
+     *
+     * @param insertions sorted node ids to add
+     * @param deletions sorted node ids to remove, disjoint from {@code insertions}
+     * @return the node ids actually inserted and deleted and how the number of entries and of distinct values
+     * changed, {@code null} if nothing changed
+     */
+    Change update(final byte[] value, final long[] insertions, final long[] deletions) {
+        final Fun.Tuple2<byte[], Long> count = this.countKey(value);
+        // a value without a count entry has at most one block, its size is taken from the block when it is read
+        long before = count != null ? count.b - COUNT : -1;
+        long entries = 0;
+        boolean changed = false;
+        boolean split = false;
+        final long[] inserted = new long[insertions.length];
+        final long[] deleted = new long[deletions.length];
+        int insertedCount = 0;
+        int deletedCount = 0;
+        int i = 0;
+        int d = 0;
+        while (i < insertions.length || d < deletions.length) {
+            final long nodeId = i == insertions.length ? deletions[d]
+                    : d == deletions.length ? insertions[i] : Math.min(insertions[i], deletions[d]);
+            Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> block = this.blocks.floorEntry(key(value, nodeId));
+            if (block == null || !sameValue(block.getKey(), value) || !isBlock(block.getKey())) {
+                // before the first block of the value, or the value has no blocks
+                block = this.blocks.ceilingEntry(key(value, FIRST));
+                if (block != null && !sameValue(block.getKey(), value)) block = null;
+            }
+            if (block == null) {
+                if (before < 0) before = 0;
+                if (i == insertions.length) break;
+                final long[] added = Arrays.copyOfRange(insertions, i, insertions.length);
+                split |= this.write(value, FIRST, added, true) > 1;
+                System.arraycopy(added, 0, inserted, insertedCount, added.length);
+                insertedCount += added.length;
+                entries += added.length;
+                changed = true;
+                break;
+            }
+            final Fun.Tuple2<byte[], Long> next = this.blocks.higherKey(block.getKey());
+            final long limit = next != null && sameValue(next, value) ? next.b : LAST;
+            final int insertionsEnd = end(insertions, i, limit);
+            final int deletionsEnd = end(deletions, d, limit);
+            final long[] nodes = block.getValue().toArray();
+            if (before < 0) before = nodes.length;
+            final long[] updated = PostingLists.update(nodes, Arrays.copyOfRange(insertions, i, insertionsEnd),
+                    Arrays.copyOfRange(deletions, d, deletionsEnd));
+            if (updated != nodes) {
+                changed = true;
+                entries += updated.length - nodes.length;
+                for (int n = i; n < insertionsEnd; n++) {
+                    if (Arrays.binarySearch(nodes, insertions[n]) < 0) inserted[insertedCount++] = insertions[n];
+                }
+                for (int n = d; n < deletionsEnd; n++) {
+                    if (Arrays.binarySearch(nodes, deletions[n]) >= 0) deleted[deletedCount++] = deletions[n];
+                }
+                if (updated.length == 0) {
+                    this.blocks.remove(block.getKey());
+                } else {
+                    final boolean appended = insertionsEnd > i && insertions[i] > nodes[nodes.length - 1];
+                    split |= this.write(value, block.getKey().b, updated, appended) > 1;
+                }
+            }
+            i = insertionsEnd;
+            d = deletionsEnd;
+        }
+        if (!changed) return null;
+        final long after = before + entries;
+        // a single block stays single unless it is split
+        final boolean counted = after > this.blockSize
+                || after > 0 && (count != null || split) && this.hasSeveralBlocks(value);
+        if (count != null && (!counted || after != before)) this.blocks.remove(count);
+        if (counted && (count == null || after != before)) this.blocks.put(countKey(value, after), PostingBitmap.EMPTY);
+        return new Change(Arrays.copyOf(inserted, insertedCount), Arrays.copyOf(deleted, deletedCount), entries,
+                (after > 0 ? 1 : 0) - (before > 0 ? 1 : 0), after);
+    }
+
+    /**
+     * @return index of the first node id at or after {@code start} that is not below {@code limit}
+     */
+    private static int end(final long[] nodeIds, final int start, final long limit) {
+        int end = start;
+        while (end < nodeIds.length && nodeIds[end] < limit) end++;
+        return end;
+    }
+
+    /**
+     * Writes the nodes of a block, splitting them into several blocks if they do not fit.
+     * Nodes appended at the end fill the block up and start a new one, otherwise the nodes are spread evenly.
+     *
+     * @param blockId id of the block the nodes replace, {@link #FIRST} for a new value
+     * @return number of blocks written
+     */
+    private int write(final byte[] value, final long blockId, final long[] nodes, final boolean appended) {
+        final int count = nodes.length <= this.blockSize ? 1
+                : appended ? (nodes.length + this.blockSize - 1) / this.blockSize
+                : Math.max(2, (nodes.length + this.blockSize - 1) / this.blockSize);
+        for (int chunk = 0; chunk < count; chunk++) {
+            final int from = appended ? chunk * this.blockSize : (int) ((long) nodes.length * chunk / count);
+            final int to = appended ? Math.min(nodes.length, from + this.blockSize)
+                    : (int) ((long) nodes.length * (chunk + 1) / count);
+            final long[] block = count == 1 ? nodes : Arrays.copyOfRange(nodes, from, to);
+            if (chunk == 0 && blockId != FIRST && blockId <= block[0]) {
+                this.blocks.put(key(value, blockId), PostingBitmap.of(block));
+            } else {
+                // a new block, or nodes inserted before the first block, which is keyed by its new first node
+                if (chunk == 0 && blockId != FIRST) this.blocks.remove(key(value, blockId));
+                this.blocks.put(key(value, block[0]), PostingBitmap.of(block));
+            }
+            if (this.blockSizes != null) this.blockSizes.record(block.length);
+        }
+        return count;
+    }
+
+    /**
+     * A snapshot of the tree, which readers can use while the index changes.
+     */
+    PostingTree snapshot() {
+        return new PostingTree((BTreeMap<Fun.Tuple2<byte[], Long>, PostingBitmap>) this.blocks.snapshot(), this.blockSize, null);
+    }
+
+    void close() {
+        this.blocks.close();
+    }
+
+    /**
+     * Splits whole posting lists, values in descending order, into blocks in descending key order
+     * as MapDB's pump expects them, the count entry of a value with several blocks after its blocks.
+     */
+    static Iterator<Fun.Tuple2<Fun.Tuple2<byte[], Long>, PostingBitmap>> blocksOf(final Iterator<Fun.Tuple2<byte[], long[]>> postingLists,
+                                                                                 final int blockSize) {
+        return new Iterator<Fun.Tuple2<Fun.Tuple2<byte[], Long>, PostingBitmap>>() {
+            private final List<Fun.Tuple2<Fun.Tuple2<byte[], Long>, PostingBitmap>> pending = new ArrayList<>();
+
+            @Override
+            public boolean hasNext() {
+                return !this.pending.isEmpty() || postingLists.hasNext();
+            }
+
+            @Override
+            public Fun.Tuple2<Fun.Tuple2<byte[], Long>, PostingBitmap> next() {
+                if (this.pending.isEmpty()) {
+                    if (!postingLists.hasNext()) throw new NoSuchElementException();
+                    final Fun.Tuple2<byte[], long[]> postingList = postingLists.next();
+                    final long[] nodes = postingList.b;
+                    if (nodes.length > blockSize) {
+                        this.pending.add(Fun.t2(countKey(postingList.a, nodes.length), PostingBitmap.EMPTY));
+                    }
+                    for (int from = 0; from < nodes.length; from += blockSize) {
+                        final long[] block = nodes.length <= blockSize ? nodes
+                                : Arrays.copyOfRange(nodes, from, Math.min(nodes.length, from + blockSize));
+                        this.pending.add(Fun.t2(key(postingList.a, block[0]), PostingBitmap.of(block)));
+                    }
+                }
+                return this.pending.remove(this.pending.size() - 1);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Passes on the entries of blocks, leaving out count entries.
+     */
+    private static final class BlockEntries implements Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> {
+        private final Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> entries;
+        private Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> next;
+
+        BlockEntries(final Iterator<Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && this.entries.hasNext()) {
+                final Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> entry = this.entries.next();
+                if (isBlock(entry.getKey())) this.next = entry;
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> next() {
+            if (!this.hasNext()) throw new NoSuchElementException();
+            final Map.Entry<Fun.Tuple2<byte[], Long>, PostingBitmap> result = this.next;
+            this.next = null;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * What an update changed: the node ids it actually inserted and deleted, sorted, which leaves out those that
+     * were already in the posting list or not in it, the change of the number of entries and of distinct values,
+     * and the number of nodes of the value after it.
+     */
+    static final class Change {
+        final long[] inserted;
+        final long[] deleted;
+        final long entries;
+        final int values;
+        final long size;
+
+        Change(final long[] inserted, final long[] deleted, final long entries, final int values, final long size) {
+            this.inserted = inserted;
+            this.deleted = deleted;
+            this.entries = entries;
+            this.values = values;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * Orders the keys of {@link PropertyKeys} byte by byte, unsigned, a shorter key before the keys it is a prefix of.
+ * Comparing keys neither decodes nor allocates anything.
+ */
+public final class PropertyKeyComparator implements Comparator<byte[]>, Serializable {
+
+    public static final PropertyKeyComparator INSTANCE = new PropertyKeyComparator();
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public int compare(final byte[] first, final byte[] second) {
+        final int length = Math.min(first.length, second.length);
+        for (int i = 0; i < length; i++) {
+            if (first[i] != second[i]) return (first[i] & 0xFF) - (second[i] & 0xFF);
+        }
+        return first.length - second.length;
+    }
+
+    /**
+     * MapDB stores the comparator with the tree and checks it against the one of the key serializer when reopening.
+     */
+    @Override
+    public boolean equals(final Object other) {
+        return other instanceof PropertyKeyComparator;
+    }
+
+    @Override
+    public int hashCode() {
+        return PropertyKeyComparator.class.hashCode();
+    }
+}
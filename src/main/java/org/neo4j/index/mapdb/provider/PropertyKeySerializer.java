@@ -0,0 +1,65 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.mapdb.BTreeKeySerializer;
+
+/**
+ * Serializes the keys of a B-tree node, which are {@link PropertyKeys} sorted by {@link PropertyKeyComparator}.
+ * <p>
+ * Each key is stored as the length of the prefix it shares with the previous key of the node and the bytes
+ * after it. Sorted keys share long prefixes: the tag and the high bytes of nearby numbers, the start of strings,
+ * and all of the key for the blocks of one value.
+ */
+public final class PropertyKeySerializer extends BTreeKeySerializer<byte[]> implements Serializable {
+
+    public static final PropertyKeySerializer INSTANCE = new PropertyKeySerializer();
+
+    private static final long serialVersionUID = 1L;
+
+    private static final byte[] NONE = new byte[0];
+
+    @Override
+    public void serialize(final DataOutput out, final int start, final int end, final Object[] keys) throws IOException {
+        byte[] previous = NONE;
+        for (int i = start; i < end; i++) {
+            final byte[] key = (byte[]) keys[i];
+            final int prefix = commonPrefix(previous, key);
+            VarLongs.write(out, prefix);
+            VarLongs.write(out, key.length - prefix);
+            out.write(key, prefix, key.length - prefix);
+            previous = key;
+        }
+    }
+
+    @Override
+    public Object[] deserialize(final DataInput in, final int start, final int end, final int size) throws IOException {
+        final Object[] keys = new Object[size];
+        byte[] previous = NONE;
+        for (int i = start; i < end; i++) {
+            final int prefix = (int) VarLongs.read(in);
+            final byte[] key = new byte[prefix + (int) VarLongs.read(in)];
+            System.arraycopy(previous, 0, key, 0, prefix);
+            in.readFully(key, prefix, key.length - prefix);
+            keys[i] = key;
+            previous = key;
+        }
+        return keys;
+    }
+
+    @Override
+    public Comparator<byte[]> getComparator() {
+        return PropertyKeyComparator.INSTANCE;
+    }
+
+    private static int commonPrefix(final byte[] first, final byte[] second) {
+        final int length = Math.min(first.length, second.length);
+        int i = 0;
+        while (i < length && first[i] == second[i]) i++;
+        return i;
+    }
+}
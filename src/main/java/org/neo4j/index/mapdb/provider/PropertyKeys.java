@@ -0,0 +1,291 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encodes property values of all types into canonical keys, byte arrays that sort like the values under
+ * {@link PropertyKeyComparator}'s unsigned byte comparison, so one index can hold values of different types.
+ * <p>
+ * Each key starts with the tag of its group: numbers, booleans, characters, strings and arrays, in that order.
+ * Numbers of all types are normalized, equal values like {@code 42}, {@code 42L} and {@code 42.0} get the same key
+ * and share one posting list. Their key is the order preserving bits of the nearest double, followed by the exact
+ * distance of an integral value from it, so longs beyond 2^53 keep their order. Strings are encoded char by char
+ * with one byte for ASCII and end with a zero byte, arrays are the keys of their elements, ending with a zero byte.
+ * So no key is a prefix of another and arrays compare element by element, then by length.
+ * <p>
+ * Arrays with equal elements share a key whatever their component type, as do all empty arrays.
+ */
+public final class PropertyKeys {
+
+    private static final int END = 0;
+
+    static final int NUMBER = 1;
+    static final int BOOLEAN = 2;
+    static final int CHARACTER = 3;
+    static final int STRING = 4;
+    static final int ARRAY = 5;
+
+    /**
+     * Markers of a number's distance from its nearest double, in that order; only integral numbers have one.
+     */
+    private static final int BELOW = 0x40;
+    private static final int EXACT = 0x80;
+    private static final int ABOVE = 0xC0;
+
+    private PropertyKeys() {
+    }
+
+    public static byte[] encode(final Object value) {
+        final Output out = new Output(value instanceof String ? ((String) value).length() + 2 : 16);
+        encode(out, value);
+        return out.toByteArray();
+    }
+
+    private static void encode(final Output out, final Object value) {
+        if (value instanceof String) {
+            out.write(STRING);
+            encodeChars(out, (String) value);
+            out.write(END);
+        } else if (value instanceof Number) {
+            out.write(NUMBER);
+            encodeNumber(out, (Number) value);
+        } else if (value instanceof Boolean) {
+            out.write(BOOLEAN);
+            out.write((Boolean) value ? 1 : 0);
+        } else if (value instanceof Character) {
+            out.write(CHARACTER);
+            final char c = (Character) value;
+            out.write(c >>> 8);
+            out.write(c);
+        } else if (value != null && value.getClass().isArray()) {
+            out.write(ARRAY);
+            final int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                encode(out, Array.get(value, i));
+            }
+            out.write(END);
+        } else {
+            throw new IllegalArgumentException("Unsupported property value type " + (value == null ? null : value.getClass()));
+        }
+    }
+
+    /**
+     * Chars are shifted by one to keep the zero byte for the end: below 0x80 they take one byte,
+     * below 0x4000 two bytes starting with 0x80 to 0xBF, above three bytes starting with 0xC0 or 0xC1.
+     */
+    private static void encodeChars(final Output out, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final int c = value.charAt(i) + 1;
+            if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x4000) {
+                out.write(0x80 | c >>> 8);
+                out.write(c);
+            } else {
+                out.write(0xC0 | c >>> 16);
+                out.write(c >>> 8);
+                out.write(c);
+            }
+        }
+    }
+
+    private static void encodeNumber(final Output out, final Number value) {
+        final double nearest;
+        long distance;
+        if (value instanceof Double || value instanceof Float) {
+            // -0.0 is the same number as 0.0
+            nearest = value.doubleValue() == 0 ? 0.0 : value.doubleValue();
+            // 2^63 is one above Long.MAX_VALUE, which also rounds to it
+            distance = nearest == 0x1p63 ? 1 : 0;
+        } else {
+            final long integral = value.longValue();
+            nearest = (double) integral;
+            distance = integral - (nearest == 0x1p63 ? Long.MAX_VALUE : (long) nearest);
+        }
+        out.writeLong(sortableBits(nearest));
+        if (distance == 0) {
+            out.write(EXACT);
+        } else {
+            out.write(distance < 0 ? BELOW : ABOVE);
+            out.writeLong(distance ^ Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Maps the bits of a double to a long with the same order under unsigned comparison.
+     */
+    private static long sortableBits(final double value) {
+        final long bits = Double.doubleToLongBits(value);
+        return bits ^ (bits >> 63 | Long.MIN_VALUE);
+    }
+
+    private static double doubleOf(final long sortable) {
+        return Double.longBitsToDouble(sortable < 0 ? sortable ^ Long.MIN_VALUE : ~sortable);
+    }
+
+    /**
+     * Decodes a key into a value it was encoded from: numbers as a {@code Long} if they are integral and within
+     * range, else as a {@code Double}, arrays of numbers as {@code long[]} or {@code double[]}, empty arrays as
+     * {@code Object[]}.
+     */
+    public static Object decode(final byte[] key) {
+        final int[] position = {0};
+        final Object value = decode(key, position);
+        if (position[0] != key.length) throw new IllegalArgumentException("Trailing bytes in key " + Arrays.toString(key));
+        return value;
+    }
+
+    private static Object decode(final byte[] key, final int[] position) {
+        final int tag = key[position[0]++] & 0xFF;
+        switch (tag) {
+        case NUMBER:
+            return decodeNumber(key, position);
+        case BOOLEAN:
+            return key[position[0]++] != 0;
+        case CHARACTER:
+            final char c = (char) ((key[position[0]] & 0xFF) << 8 | key[position[0] + 1] & 0xFF);
+            position[0] += 2;
+            return c;
+        case STRING:
+            return decodeChars(key, position);
+        case ARRAY:
+            final List<Object> elements = new ArrayList<>();
+            while (key[position[0]] != END) {
+                elements.add(decode(key, position));
+            }
+            position[0]++;
+            return toArray(elements);
+        default:
+            throw new IllegalArgumentException("Unknown key tag " + tag);
+        }
+    }
+
+    private static String decodeChars(final byte[] key, final int[] position) {
+        final StringBuilder result = new StringBuilder();
+        int i = position[0];
+        while (key[i] != END) {
+            final int first = key[i++] & 0xFF;
+            final int c;
+            if (first < 0x80) {
+                c = first;
+            } else if (first < 0xC0) {
+                c = (first & 0x3F) << 8 | key[i++] & 0xFF;
+            } else {
+                c = (first & 0x3F) << 16 | (key[i] & 0xFF) << 8 | key[i + 1] & 0xFF;
+                i += 2;
+            }
+            result.append((char) (c - 1));
+        }
+        position[0] = i + 1;
+        return result.toString();
+    }
+
+    private static Number decodeNumber(final byte[] key, final int[] position) {
+        final double nearest = doubleOf(readLong(key, position[0]));
+        final int marker = key[position[0] + 8] & 0xFF;
+        position[0] += 9;
+        long distance = 0;
+        if (marker != EXACT) {
+            distance = readLong(key, position[0]) ^ Long.MIN_VALUE;
+            position[0] += 8;
+        }
+        if (nearest == 0x1p63) return distance == 1 ? (Number) nearest : (Number) (Long.MAX_VALUE + distance);
+        if (distance != 0) return (long) nearest + distance;
+        if (nearest == Math.rint(nearest) && nearest >= -0x1p63 && nearest < 0x1p63) return (long) nearest;
+        return nearest;
+    }
+
+    private static Object toArray(final List<Object> elements) {
+        if (elements.isEmpty()) return new Object[0];
+        final Object first = elements.get(0);
+        Class<?> type = first instanceof Number ? long.class : first instanceof Boolean ? boolean.class
+                : first instanceof Character ? char.class : first.getClass();
+        for (final Object element : elements) {
+            if (element instanceof Double) type = double.class;
+        }
+        final Object result = Array.newInstance(type, elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            final Object element = elements.get(i);
+            if (type == double.class) {
+                Array.setDouble(result, i, ((Number) element).doubleValue());
+            } else {
+                Array.set(result, i, element);
+            }
+        }
+        return result;
+    }
+
+    private static long readLong(final byte[] key, final int offset) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = result << 8 | key[offset + i] & 0xFF;
+        }
+        return result;
+    }
+
+    /**
+     * @return a search key below all keys of the group, it is never stored
+     */
+    static byte[] startOf(final int group) {
+        return new byte[]{(byte) group};
+    }
+
+    /**
+     * @return a search key above all keys of the group, it is never stored
+     */
+    static byte[] endOf(final int group) {
+        return new byte[]{(byte) (group + 1)};
+    }
+
+    /**
+     * @return a search key at or below the keys of all strings starting with {@code prefix}
+     */
+    static byte[] prefixOf(final String prefix) {
+        final Output out = new Output(prefix.length() + 1);
+        out.write(STRING);
+        encodeChars(out, prefix);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the smallest search key above all keys starting with {@code prefix}
+     */
+    static byte[] successorOf(final byte[] prefix) {
+        int length = prefix.length;
+        while (length > 0 && prefix[length - 1] == (byte) 0xFF) length--;
+        if (length == 0) throw new IllegalArgumentException("No key follows all keys starting with " + Arrays.toString(prefix));
+        final byte[] result = Arrays.copyOf(prefix, length);
+        result[length - 1]++;
+        return result;
+    }
+
+    /**
+     * Grows like a {@link java.io.ByteArrayOutputStream} without its synchronization.
+     */
+    private static final class Output {
+        private byte[] bytes;
+        private int size;
+
+        Output(final int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void write(final int b) {
+            if (this.size == this.bytes.length) this.bytes = Arrays.copyOf(this.bytes, this.size * 2 + 8);
+            this.bytes[this.size++] = (byte) b;
+        }
+
+        void writeLong(final long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                this.write((int) (value >>> shift));
+            }
+        }
+
+        byte[] toByteArray() {
+            return this.bytes.length == this.size ? this.bytes : Arrays.copyOf(this.bytes, this.size);
+        }
+    }
+}
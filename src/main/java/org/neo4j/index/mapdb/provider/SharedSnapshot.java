@@ -0,0 +1,61 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A snapshot of the index tree taken at one commit version of the index, shared by all readers opened before the
+ * next commit.
+ * <p>
+ * The index holds one reference while the snapshot is current, each reader holds one until it is closed.
+ * The MapDB snapshot is closed when the last reference is released, readers never see it change underneath them.
+ */
+final class SharedSnapshot {
+
+    private final PostingTree tree;
+
+    private final long version;
+
+    private final long entries;
+
+    private final long distinctValues;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    SharedSnapshot(final PostingTree tree, final long version, final long entries, final long distinctValues) {
+        this.tree = tree;
+        this.version = version;
+        this.entries = entries;
+        this.distinctValues = distinctValues;
+    }
+
+    /**
+     * @return {@code false} if the snapshot has already been closed and must not be used
+     */
+    boolean acquire() {
+        while (true) {
+            final int current = this.references.get();
+            if (current == 0) return false;
+            if (this.references.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    void release() {
+        if (this.references.decrementAndGet() == 0) this.tree.close();
+    }
+
+    PostingTree tree() {
+        return this.tree;
+    }
+
+    long version() {
+        return this.version;
+    }
+
+    long entries() {
+        return this.entries;
+    }
+
+    long distinctValues() {
+        return this.distinctValues;
+    }
+}
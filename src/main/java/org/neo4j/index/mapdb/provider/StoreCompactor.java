@@ -0,0 +1,124 @@
+package org.neo4j.index.mapdb.provider;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compacts index stores in the background, so their files do not keep growing with free space.
+ * <p>
+ * Every {@code interval} the compactor looks at the stores of the indexes and compacts those whose free space takes at least
+ * {@code deadSpaceRatio} of them and which have not committed for {@code idleTime}, so stores under write load
+ * are left alone. Stores are compacted one at a time and in one step, the writers of a store wait for its whole
+ * compaction; after each the compactor pauses so it spends at most {@code dutyCycle} of its time compacting,
+ * which leaves the disk to the foreground the rest of the time.
+ * The sizes before and after the last compaction of a store are in its {@link IndexMetrics}.
+ */
+public final class StoreCompactor implements Closeable {
+
+    private final Iterable<MapDbIndex> indexes;
+
+    private final long intervalMillis;
+
+    private final double deadSpaceRatio;
+
+    private final long idleNanos;
+
+    private final double dutyCycle;
+
+    private final Thread thread;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param indexes the indexes whose stores to look at, iterated anew on each round
+     * @param intervalMillis time between two rounds
+     * @param deadSpaceRatio part of a store that must be free space for it to be compacted
+     * @param idleMillis time a store must not have committed for it to be compacted
+     * @param dutyCycle part of the time the compactor may spend compacting, above 0 and at most 1
+     */
+    public StoreCompactor(final Iterable<MapDbIndex> indexes, final long intervalMillis, final double deadSpaceRatio,
+                          final long idleMillis, final double dutyCycle) {
+        this.indexes = indexes;
+        this.intervalMillis = intervalMillis;
+        this.deadSpaceRatio = deadSpaceRatio;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.dutyCycle = dutyCycle;
+        this.thread = new Thread("mapdb-index-compactor") {
+            @Override
+            public void run() {
+                StoreCompactor.this.run();
+            }
+        };
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+    }
+
+    private void run() {
+        while (this.pause(TimeUnit.MILLISECONDS.toNanos(this.intervalMillis))) {
+            this.compactStores();
+        }
+    }
+
+    /**
+     * One round over the stores.
+     *
+     * @return number of stores compacted
+     */
+    int compactStores() {
+        int compacted = 0;
+        for (final MapDbIndex index : this.indexes) {
+            if (this.stopped) break;
+            final MapDbIndexStore store = index.store();
+            if (store.getIdleNanos() < this.idleNanos || store.getDeadSpaceRatio() < this.deadSpaceRatio) continue;
+            final long start = System.nanoTime();
+            if (!index.compact()) continue;
+            compacted++;
+            // long enough that compacting took at most the duty cycle of the time
+            final long nanos = System.nanoTime() - start;
+            if (this.dutyCycle < 1 && !this.pause((long) (nanos * (1 - this.dutyCycle) / this.dutyCycle))) break;
+        }
+        return compacted;
+    }
+
+    /**
+     * Waits on this monitor rather than being interrupted, an interrupt would close the files of a store
+     * in the middle of a compaction.
+     *
+     * @return whether the compactor is still running after the pause
+     */
+    private synchronized boolean pause(final long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (!this.stopped && remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return !this.stopped;
+    }
+
+    /**
+     * Stops the compactor and waits for a running compaction to finish, before the stores are closed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            this.stopped = true;
+            this.notifyAll();
+        }
+        while (this.thread.isAlive()) {
+            try {
+                this.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
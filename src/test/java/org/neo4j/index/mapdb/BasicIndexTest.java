@@ -17,6 +17,7 @@ import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 /**
  * @author mh
@@ -51,6 +52,72 @@ public abstract class BasicIndexTest {
         }
     }
 
+    @Test
+    public void testPopulateIndexOverExistingNodes() throws Exception {
+        final Label label = DynamicLabel.label("foopopulate");
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 1000; i++) {
+                db.createNode(label).setProperty(PROPERTY, i % 10);
+            }
+            tx.success();
+        }
+        createIndex(label);
+        try (Transaction tx = db.beginTx()) {
+            for (int value = 0; value < 10; value++) {
+                assertEquals(100, IteratorUtil.count(db.findNodesByLabelAndProperty(label, PROPERTY, value)));
+            }
+            assertEquals(0, IteratorUtil.count(db.findNodesByLabelAndProperty(label, PROPERTY, 10)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testUniquenessConstraint() throws Exception {
+        final Label label = DynamicLabel.label("foounique");
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, 1);
+            db.createNode(label).setProperty(PROPERTY, 2);
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().constraintFor(label).assertPropertyIsUnique(PROPERTY).create();
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, 3);
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, 2);
+            tx.success();
+            fail("Expected a uniqueness constraint violation");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+        try (Transaction tx = db.beginTx()) {
+            assertEquals(1, IteratorUtil.count(db.findNodesByLabelAndProperty(label, PROPERTY, 2)));
+            assertEquals(1, IteratorUtil.count(db.findNodesByLabelAndProperty(label, PROPERTY, 3)));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testUniquenessConstraintOverDuplicatesFails() throws Exception {
+        final Label label = DynamicLabel.label("fooduplicate");
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, 1);
+            db.createNode(label).setProperty(PROPERTY, 1);
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().constraintFor(label).assertPropertyIsUnique(PROPERTY).create();
+            tx.success();
+            fail("Expected the constraint creation to fail");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testInsertPerformanceWithIntValues() throws Exception {
         insertManyNodesWithIndex(new PropertyValue() {
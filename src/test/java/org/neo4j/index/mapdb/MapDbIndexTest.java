@@ -1,8 +1,27 @@
 package org.neo4j.index.mapdb;
 
 import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.api.Statement;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.impl.store.record.IndexRule;
+import org.neo4j.kernel.impl.store.record.SchemaRule;
+import org.neo4j.kernel.impl.transaction.state.NeoStoreProvider;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author mh
@@ -12,8 +31,45 @@ public class MapDbIndexTest extends BasicIndexTest {
     @Override
     @Before
     public void setUp() throws IOException {
-//        System.out.println("setting prioty");
-//        MapDbSchemaIndexProvider.PRIORITY = 12;
+        MapDbSchemaIndexProvider.PRIORITY = 2;
         super.setUp();
     }
+
+    @Test
+    public void testIndexMetricsAreRegisteredAsMXBeans() throws Exception {
+        final Label label = DynamicLabel.label("foometrics");
+        createIndex(label);
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(label).setProperty(PROPERTY, "metrics");
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            assertEquals(1, IteratorUtil.count(db.findNodesByLabelAndProperty(label, PROPERTY, "metrics")));
+            tx.success();
+        }
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final Set<ObjectName> names = server.queryNames(
+                new ObjectName("org.neo4j.index.mapdb:type=IndexMetrics,index=" + indexId(label) + ",*"), null);
+        assertEquals(1, names.size());
+        final ObjectName name = names.iterator().next();
+        assertTrue((Long) ((CompositeData) server.getAttribute(name, "LookupNanos")).get("count") > 0);
+        assertEquals(1L, server.getAttribute(name, "Entries"));
+        assertEquals(1L, ((CompositeData) server.getAttribute(name, "PostingListSizes")).get("max"));
+    }
+
+    private long indexId(final Label label) {
+        final int labelId;
+        try (Transaction tx = db.beginTx();
+             Statement statement = db.getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class).instance()) {
+            labelId = statement.readOperations().labelGetForName(label.name());
+            tx.success();
+        }
+        final Iterator<SchemaRule> rules = db.getDependencyResolver().resolveDependency(NeoStoreProvider.class).evaluate()
+                .getSchemaStore().loadAllSchemaRules();
+        while (rules.hasNext()) {
+            final SchemaRule rule = rules.next();
+            if (rule instanceof IndexRule && rule.getLabel() == labelId) return rule.getId();
+        }
+        throw new AssertionError("no index on " + label);
+    }
 }
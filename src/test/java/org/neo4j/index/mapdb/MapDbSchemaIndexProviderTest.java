@@ -0,0 +1,191 @@
+package org.neo4j.index.mapdb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.api.index.IndexAccessor;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexDescriptor;
+import org.neo4j.kernel.api.index.IndexPopulator;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.api.index.sampling.IndexSamplingConfig;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MapDbSchemaIndexProviderTest {
+
+    private static final long INDEX_ID = 1;
+    private static final IndexDescriptor DESCRIPTOR = new IndexDescriptor(1, 2);
+    private static final IndexConfiguration CONFIG = new IndexConfiguration(false);
+
+    private final File storeDir = new File("target/provider-store");
+    private final IndexSamplingConfig samplingConfig = new IndexSamplingConfig(new Config());
+    private MapDbSchemaIndexProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(storeDir);
+    }
+
+    @After
+    public void tearDown() throws Throwable {
+        if (provider != null) provider.shutdown();
+        FileUtils.deleteRecursively(storeDir);
+    }
+
+    @Test
+    public void populatedIndexIsReattachedOnlineAfterRestart() throws Throwable {
+        provider = start("file");
+        assertEquals(InternalIndexState.POPULATING, provider.getInitialState(INDEX_ID));
+        final IndexPopulator populator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        populator.create();
+        populator.add(0, "a");
+        populator.add(1, "b");
+        populator.close(true);
+        assertEquals(InternalIndexState.ONLINE, provider.getInitialState(INDEX_ID));
+
+        restart("file");
+        assertEquals(InternalIndexState.ONLINE, provider.getInitialState(INDEX_ID));
+        final IndexAccessor accessor = provider.getOnlineAccessor(INDEX_ID, CONFIG, samplingConfig);
+        try (IndexReader reader = accessor.newReader()) {
+            assertArrayEquals(new long[]{0}, PrimitiveLongCollections.asArray(reader.lookup("a")));
+        }
+    }
+
+    @Test
+    public void failureIsReportedAfterRestart() throws Throwable {
+        provider = start("file");
+        final IndexPopulator populator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        populator.create();
+        populator.markAsFailed("out of luck");
+        populator.close(false);
+
+        restart("file");
+        assertEquals(InternalIndexState.FAILED, provider.getInitialState(INDEX_ID));
+        assertEquals("out of luck", provider.getPopulationFailure(INDEX_ID));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void indexThatHasNotFailedHasNoFailure() throws Throwable {
+        provider = start("file");
+        provider.getPopulationFailure(INDEX_ID);
+    }
+
+    @Test
+    public void indexInMemoryIsRepopulatedAfterRestart() throws Throwable {
+        provider = start("heap");
+        final IndexPopulator populator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        populator.create();
+        populator.add(0, "a");
+        populator.close(true);
+        assertEquals(InternalIndexState.ONLINE, provider.getInitialState(INDEX_ID));
+
+        restart("heap");
+        assertEquals(InternalIndexState.POPULATING, provider.getInitialState(INDEX_ID));
+    }
+
+    @Test
+    public void dumpInTheRestoreDirectoryIsRestoredOnlineAtStartup() throws Throwable {
+        provider = start("file");
+        final IndexPopulator populator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        populator.create();
+        populator.add(0, "a");
+        populator.add(1, "b");
+        populator.close(true);
+        final File restoreDirectory = provider.getRestoreDirectory();
+        assertTrue(restoreDirectory.mkdirs());
+        final File dump = new File(restoreDirectory, 2 + MapDbSchemaIndexProvider.DUMP_SUFFIX);
+        provider.dumpIndex(INDEX_ID, dump);
+
+        restart("file");
+        assertFalse(dump.exists());
+        assertEquals(InternalIndexState.ONLINE, provider.getInitialState(2));
+        final IndexAccessor accessor = provider.getOnlineAccessor(2, CONFIG, samplingConfig);
+        try (IndexReader reader = accessor.newReader()) {
+            assertArrayEquals(new long[]{1}, PrimitiveLongCollections.asArray(reader.lookup("b")));
+        }
+    }
+
+    @Test
+    public void damagedDumpInTheRestoreDirectoryLeavesIndexToBeRepopulated() throws Throwable {
+        provider = start("file");
+        final IndexPopulator populator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        populator.create();
+        for (int nodeId = 0; nodeId < 100; nodeId++) {
+            populator.add(nodeId, "value-" + nodeId);
+        }
+        populator.close(true);
+        final File restoreDirectory = provider.getRestoreDirectory();
+        assertTrue(restoreDirectory.mkdirs());
+        final File dump = new File(restoreDirectory, 2 + MapDbSchemaIndexProvider.DUMP_SUFFIX);
+        provider.dumpIndex(INDEX_ID, dump);
+        try (RandomAccessFile file = new RandomAccessFile(dump, "rw")) {
+            file.setLength(file.length() / 2);
+        }
+
+        restart("file");
+        assertFalse(dump.exists());
+        assertEquals(InternalIndexState.POPULATING, provider.getInitialState(2));
+        assertEquals(InternalIndexState.ONLINE, provider.getInitialState(INDEX_ID));
+    }
+
+    @Test
+    public void droppedIndexIsForgottenWithItsStoreAndMetrics() throws Throwable {
+        provider = start("file");
+        final IndexPopulator populator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        populator.create();
+        populator.add(0, "a");
+        populator.close(true);
+        final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(mbeanServer.isRegistered(provider.metricsName(INDEX_ID)));
+
+        provider.getOnlineAccessor(INDEX_ID, CONFIG, samplingConfig).drop();
+        assertFalse(mbeanServer.isRegistered(provider.metricsName(INDEX_ID)));
+        assertEquals(InternalIndexState.POPULATING, provider.getInitialState(INDEX_ID));
+        try {
+            provider.getOnlineAccessor(INDEX_ID, CONFIG, samplingConfig);
+            fail("dropped index still online");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        final IndexPopulator repopulator = provider.getPopulator(INDEX_ID, DESCRIPTOR, CONFIG, samplingConfig);
+        repopulator.create();
+        repopulator.add(1, "b");
+        repopulator.close(true);
+        try (IndexReader reader = provider.getOnlineAccessor(INDEX_ID, CONFIG, samplingConfig).newReader()) {
+            assertArrayEquals(new long[0], PrimitiveLongCollections.asArray(reader.lookup("a")));
+            assertArrayEquals(new long[]{1}, PrimitiveLongCollections.asArray(reader.lookup("b")));
+        }
+    }
+
+    private void restart(final String storage) throws Throwable {
+        provider.shutdown();
+        provider = start(storage);
+    }
+
+    private MapDbSchemaIndexProvider start(final String storage) throws Throwable {
+        final MapDbSchemaIndexProvider result = new MapDbSchemaIndexProvider(new Config(MapUtil.stringMap(
+                GraphDatabaseSettings.store_dir.name(), storeDir.getAbsolutePath(),
+                MapDbIndexSettings.storage.name(), storage), GraphDatabaseSettings.class, MapDbIndexSettings.class));
+        result.init();
+        result.start();
+        return result;
+    }
+}
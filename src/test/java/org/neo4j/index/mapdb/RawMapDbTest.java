@@ -9,6 +9,10 @@ import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
+import org.neo4j.index.mapdb.provider.PostingListSerializer;
+import org.neo4j.index.mapdb.provider.PropertyKeySerializer;
+import org.neo4j.index.mapdb.provider.PropertyKeyComparator;
+import org.neo4j.index.mapdb.provider.PropertyKeys;
 import org.neo4j.io.fs.FileUtils;
 
 import java.io.File;
@@ -19,7 +23,7 @@ public class RawMapDbTest {
 
     protected static final int COUNT = 10000;
     protected static final int RUNS = 100;
-    private BTreeMap<Object,long[]> map;
+    private BTreeMap<byte[],long[]> map;
     private DB db;
 
     @Before
@@ -36,9 +40,9 @@ public class RawMapDbTest {
                 .make();
 
 //        map = db.getTreeMap("test");
-        final Comparator<Object> comparator = null;
-        final BTreeKeySerializer<Object> keySerializer = null;
-        final Serializer<long[]> valueSerializer = null;
+        final Comparator<byte[]> comparator = PropertyKeyComparator.INSTANCE;
+        final BTreeKeySerializer<byte[]> keySerializer = PropertyKeySerializer.INSTANCE;
+        final Serializer<long[]> valueSerializer = PostingListSerializer.INSTANCE;
         map = db.createTreeMap("test").comparator(comparator).keySerializer(keySerializer)
                 .valueSerializer(valueSerializer).nodeSize(64).make();
     }
@@ -68,7 +72,7 @@ public class RawMapDbTest {
         long time = System.currentTimeMillis();
         for (int run = 0; run < RUNS; run++) {
             for (int i = 0; i < COUNT; i++) {
-                map.put(propertyValue.from(i), new long[]{i});
+                map.put(PropertyKeys.encode(propertyValue.from(i)), new long[]{i});
             }
             db.commit();
         }
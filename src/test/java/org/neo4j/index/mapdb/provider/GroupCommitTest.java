@@ -0,0 +1,111 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitTest {
+
+    @Test
+    public void concurrentRequestsShareCommits() throws Exception {
+        final AtomicInteger commits = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(new Runnable() {
+            @Override
+            public void run() {
+                commits.incrementAndGet();
+                sleep(2);
+            }
+        }, 0, TimeUnit.MILLISECONDS, 64);
+
+        runConcurrently(groupCommit, 8, 20);
+
+        assertEquals(160, groupCommit.getRequestCount());
+        assertEquals(commits.get(), groupCommit.getCommitCount());
+        assertTrue("expected fewer commits than requests, got " + commits.get(), commits.get() < 160);
+        assertTrue(groupCommit.getAverageBatchSize() > 1);
+        assertTrue(groupCommit.getMaxCommitNanos() >= TimeUnit.MILLISECONDS.toNanos(2));
+    }
+
+    @Test
+    public void windowCollectsRequestsUntilBatchIsFull() throws Exception {
+        final AtomicInteger commits = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(new Runnable() {
+            @Override
+            public void run() {
+                commits.incrementAndGet();
+            }
+        }, 10, TimeUnit.SECONDS, 4);
+
+        final long start = System.nanoTime();
+        runConcurrently(groupCommit, 4, 1);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+        assertEquals(1, commits.get());
+        assertEquals(4, groupCommit.getLastBatchSize());
+    }
+
+    @Test
+    public void waitingRequestsAreCommittedAfterFailedCommit() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final GroupCommit groupCommit = new GroupCommit(new Runnable() {
+            @Override
+            public void run() {
+                if (attempts.incrementAndGet() == 1) throw new IllegalStateException("disk full");
+            }
+        }, 0, TimeUnit.MILLISECONDS, 64);
+        try {
+            groupCommit.commit();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        groupCommit.commit();
+        assertEquals(2, attempts.get());
+        assertEquals(1, groupCommit.getCommitCount());
+        assertEquals(2, groupCommit.getLastBatchSize());
+    }
+
+    private static void runConcurrently(final GroupCommit groupCommit, final int threads, final int commitsPerThread) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < commitsPerThread; i++) {
+                            groupCommit.commit();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HistogramTest {
+
+    @Test
+    public void percentilesAreBucketUpperBoundsCappedAtTheMax() {
+        final Histogram histogram = new Histogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getTotal());
+        assertEquals(50.5, histogram.getMean(), 0.0);
+        assertEquals(100, histogram.getMax());
+        // 50 is in the bucket of 32..63
+        assertEquals(63, histogram.getMedian());
+        assertEquals(100, histogram.getP99());
+    }
+
+    @Test
+    public void emptyAndNegativeValues() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getMedian());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getP999());
+    }
+}
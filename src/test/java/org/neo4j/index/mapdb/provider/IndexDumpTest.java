@@ -0,0 +1,127 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.register.Register;
+import org.neo4j.register.Registers;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IndexDumpTest {
+
+    private static final IndexConfiguration CONFIG = new IndexConfiguration(false);
+
+    private final File directory = new File("target/index-dump");
+    private MapDbIndexStore source;
+    private MapDbIndexStore target;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        source = new MapDbIndexStore(new File(directory, "source"));
+        target = new MapDbIndexStore(new File(directory, "target"));
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    private static MapDbIndex newIndex(final MapDbIndexStore store, final IndexConfiguration config) {
+        return new MapDbIndex(store, config, 1000, true, 0, 4, 1);
+    }
+
+    @Test
+    public void restoresDumpedPostingListsOnline() throws Exception {
+        final MapDbIndex index = newIndex(source, CONFIG);
+        index.create();
+        for (int nodeId = 0; nodeId < 100; nodeId++) {
+            index.add(nodeId, nodeId % 3 == 0 ? "value-" + nodeId % 9 : nodeId);
+        }
+        index.close(true);
+        final byte[] dump = dump(index);
+
+        final MapDbIndex restored = newIndex(target, CONFIG);
+        IndexDump.restore(new ByteArrayInputStream(dump), restored);
+        assertEquals(InternalIndexState.ONLINE, restored.getState());
+        try (IndexReader reader = restored.newReader()) {
+            assertArrayEquals(new long[]{3, 12, 21, 30, 39, 48, 57, 66, 75, 84, 93}, PrimitiveLongCollections.asArray(reader.lookup("value-3")));
+            assertArrayEquals(new long[]{7}, PrimitiveLongCollections.asArray(reader.lookup(7.0)));
+        }
+        final Register.DoubleLongRegister sample = Registers.newDoubleLongRegister();
+        assertEquals(100, restored.sampleResult(sample));
+        assertEquals(3 + 66, sample.readFirst());
+
+        // the node values tree was restored with the posting lists
+        final PrimitiveLongSet removed = Primitive.longSet();
+        removed.add(30);
+        restored.remove(removed);
+        restored.force();
+        try (IndexReader reader = restored.newReader()) {
+            assertArrayEquals(new long[]{3, 12, 21, 39, 48, 57, 66, 75, 84, 93}, PrimitiveLongCollections.asArray(reader.lookup("value-3")));
+        }
+        assertArrayEquals(dump, dump(index));
+    }
+
+    @Test
+    public void restoresEmptyIndex() throws Exception {
+        final MapDbIndex index = newIndex(source, CONFIG);
+        index.create();
+        index.close(true);
+
+        final MapDbIndex restored = newIndex(target, CONFIG);
+        IndexDump.restore(new ByteArrayInputStream(dump(index)), restored);
+        assertEquals(InternalIndexState.ONLINE, restored.getState());
+        assertEquals(0, restored.sampleResult(Registers.newDoubleLongRegister()));
+    }
+
+    @Test
+    public void damagedDumpLeavesIndexPopulating() throws Exception {
+        final MapDbIndex index = newIndex(source, CONFIG);
+        index.create();
+        for (int nodeId = 0; nodeId < 10; nodeId++) {
+            index.add(nodeId, "value-" + nodeId);
+        }
+        index.close(true);
+        final byte[] dump = dump(index);
+        dump[dump.length / 2] ^= 1;
+
+        final MapDbIndex restored = newIndex(target, CONFIG);
+        try {
+            IndexDump.restore(new ByteArrayInputStream(dump), restored);
+            fail("damaged dump restored");
+        } catch (IOException e) {
+            assertEquals(InternalIndexState.POPULATING, restored.getState());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesDumpOfIndexWithOtherUniqueness() throws Exception {
+        final MapDbIndex index = newIndex(source, CONFIG);
+        index.create();
+        index.close(true);
+        IndexDump.restore(new ByteArrayInputStream(dump(index)), newIndex(target, new IndexConfiguration(true)));
+    }
+
+    private static byte[] dump(final MapDbIndex index) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IndexDump.write(index, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,529 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.api.index.DuplicateIndexEntryConflictException;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.api.index.PreexistingIndexEntryConflictException;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+import org.neo4j.register.Register;
+import org.neo4j.register.Registers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MapDbIndexAccessorTest {
+
+    private static final long[] LABELS = {1};
+    private static final int PROPERTY_KEY = 2;
+    static final IndexConfiguration NON_UNIQUE = new IndexConfiguration(false);
+
+    private final File directory = new File("target/index-accessor");
+    private MapDbIndexStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        store = new MapDbIndexStore(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.delete();
+    }
+
+    @Test
+    public void removeNodesUsingNodeValues() throws Exception {
+        removeNodes(newOnlineIndex(true));
+    }
+
+    @Test
+    public void removeNodesByScanningWithoutNodeValues() throws Exception {
+        removeNodes(newOnlineIndex(false));
+    }
+
+    private void removeNodes(final MapDbIndex index) throws Exception {
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (long nodeId = 0; nodeId < 10; nodeId++) {
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, nodeId % 2 == 0 ? "even" : "odd", LABELS));
+            }
+            updater.process(NodePropertyUpdate.change(1, PROPERTY_KEY, "odd", LABELS, "one", LABELS));
+        }
+        final PrimitiveLongSet nodeIds = Primitive.longSet();
+        nodeIds.add(0);
+        nodeIds.add(1);
+        nodeIds.add(5);
+        nodeIds.add(42);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.remove(nodeIds);
+        }
+
+        assertArrayEquals(new long[]{2, 4, 6, 8}, lookup(index, "even"));
+        assertArrayEquals(new long[]{3, 7, 9}, lookup(index, "odd"));
+        assertArrayEquals(new long[0], lookup(index, "one"));
+    }
+
+    @Test
+    public void updaterCoalescesUpdatesUntilClosed() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        addAll(index, new Object[]{"a", "a", "b"});
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(3, PROPERTY_KEY, "c", LABELS));
+            updater.process(NodePropertyUpdate.remove(3, PROPERTY_KEY, "c", LABELS));
+            updater.process(NodePropertyUpdate.change(0, PROPERTY_KEY, "a", LABELS, "b", LABELS));
+            updater.process(NodePropertyUpdate.change(0, PROPERTY_KEY, "b", LABELS, "a", LABELS));
+            updater.process(NodePropertyUpdate.change(1, PROPERTY_KEY, "a", LABELS, "b", LABELS));
+            updater.process(NodePropertyUpdate.add(4, PROPERTY_KEY, "b", LABELS));
+            assertArrayEquals(new long[]{0, 1}, lookup(index, "a"));
+        }
+        assertArrayEquals(new long[]{0}, lookup(index, "a"));
+        assertArrayEquals(new long[]{1, 2, 4}, lookup(index, "b"));
+        assertArrayEquals(new long[0], lookup(index, "c"));
+        assertSample(index, 2, 4);
+
+        final PrimitiveLongSet nodeIds = Primitive.longSet();
+        nodeIds.add(1);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.remove(nodeIds);
+        }
+        assertArrayEquals(new long[]{2, 4}, lookup(index, "b"));
+    }
+
+    @Test
+    public void uniqueIndexRejectsSecondNodeForValueAndRevertsTransaction() throws Exception {
+        final MapDbIndex index = newOnlineIndex(new IndexConfiguration(true));
+        addAll(index, new Object[]{"a", "b"});
+        try {
+            try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+                updater.process(NodePropertyUpdate.add(2, PROPERTY_KEY, "0", LABELS));
+                updater.process(NodePropertyUpdate.change(1, PROPERTY_KEY, "b", LABELS, "c", LABELS));
+                updater.process(NodePropertyUpdate.add(3, PROPERTY_KEY, "b", LABELS));
+                updater.process(NodePropertyUpdate.add(4, PROPERTY_KEY, "a", LABELS));
+            }
+            fail("Expected a conflict on value a");
+        } catch (PreexistingIndexEntryConflictException e) {
+            assertEquals("a", e.getPropertyValue());
+            assertEquals(0, e.getExistingNodeId());
+            assertEquals(4, e.getAddedNodeId());
+        }
+        assertArrayEquals(new long[0], lookup(index, "0"));
+        assertArrayEquals(new long[]{0}, lookup(index, "a"));
+        assertArrayEquals(new long[]{1}, lookup(index, "b"));
+        assertSample(index, 2, 2);
+
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.change(1, PROPERTY_KEY, "b", LABELS, "c", LABELS));
+            updater.process(NodePropertyUpdate.add(3, PROPERTY_KEY, "b", LABELS));
+        }
+        assertArrayEquals(new long[]{3}, lookup(index, "b"));
+        final IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE);
+        updater.process(NodePropertyUpdate.add(5, PROPERTY_KEY, "d", LABELS));
+        updater.process(NodePropertyUpdate.add(6, PROPERTY_KEY, "d", LABELS));
+        try {
+            updater.close();
+            fail("Expected a conflict on value d");
+        } catch (DuplicateIndexEntryConflictException e) {
+            assertEquals("d", e.getPropertyValue());
+        }
+    }
+
+    @Test
+    public void conflictRevertsOnlyWhatTheTransactionChanged() throws Exception {
+        final MapDbIndex index = newOnlineIndex(new IndexConfiguration(true));
+        addAll(index, new Object[]{"a", "b"});
+        try {
+            try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.RECOVERY)) {
+                // an add and a remove that change nothing, applied before the conflict on b
+                updater.process(NodePropertyUpdate.add(0, PROPERTY_KEY, "a", LABELS));
+                updater.process(NodePropertyUpdate.remove(7, PROPERTY_KEY, "a0", LABELS));
+                updater.process(NodePropertyUpdate.add(3, PROPERTY_KEY, "b", LABELS));
+            }
+            fail("Expected a conflict on value b");
+        } catch (PreexistingIndexEntryConflictException e) {
+            assertEquals("b", e.getPropertyValue());
+        }
+        assertArrayEquals(new long[]{0}, lookup(index, "a"));
+        assertArrayEquals(new long[0], lookup(index, "a0"));
+        assertArrayEquals(new long[]{1}, lookup(index, "b"));
+        assertSample(index, 2, 2);
+    }
+
+    @Test
+    public void recoveryReplaysUpdatesAlreadyInTheIndexHarmlessly() throws Exception {
+        final MapDbIndex index = newOnlineIndex(new IndexConfiguration(true));
+        addAll(index, new Object[]{"a", "b"});
+        // applied before the crash, while the change of node 0 to d was not
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.change(1, PROPERTY_KEY, "b", LABELS, "c", LABELS));
+            updater.process(NodePropertyUpdate.add(2, PROPERTY_KEY, "b", LABELS));
+        }
+        for (int replay = 0; replay < 2; replay++) {
+            try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.RECOVERY)) {
+                updater.process(NodePropertyUpdate.add(0, PROPERTY_KEY, "d", LABELS));
+                updater.process(NodePropertyUpdate.add(1, PROPERTY_KEY, "c", LABELS));
+                updater.process(NodePropertyUpdate.add(2, PROPERTY_KEY, "b", LABELS));
+                updater.process(NodePropertyUpdate.remove(3, PROPERTY_KEY, "e", LABELS));
+            }
+            assertArrayEquals(new long[0], lookup(index, "a"));
+            assertArrayEquals(new long[]{2}, lookup(index, "b"));
+            assertArrayEquals(new long[]{1}, lookup(index, "c"));
+            assertArrayEquals(new long[]{0}, lookup(index, "d"));
+            assertSample(index, 3, 3);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void uniqueIndexVerifiesPopulationInOneSortedPass() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, new IndexConfiguration(true), 3, true);
+        index.create();
+        for (long nodeId = 0; nodeId < 10; nodeId++) {
+            index.add(nodeId, nodeId == 7 ? 2L : nodeId);
+        }
+        try {
+            index.verifyDeferredConstraints(null);
+            fail("Expected a conflict on value 2");
+        } catch (DuplicateIndexEntryConflictException e) {
+            assertEquals(2L, e.getPropertyValue());
+            assertEquals(new HashSet<>(Arrays.asList(2L, 7L)), e.getConflictingNodeIds());
+        }
+        index.markAsFailed("duplicate");
+        index.close(false);
+        assertEquals(InternalIndexState.FAILED, index.getState());
+    }
+
+    @Test
+    public void reopensStoreWithValuesOfMixedTypes() throws Exception {
+        final Object[] values = {42, 42L, 42.0d, "42", '4', true, new int[]{4, 2}, new String[]{"4", "2"}};
+        MapDbIndex index = newOnlineIndex(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int nodeId = 0; nodeId < values.length; nodeId++) {
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, values[nodeId], LABELS));
+            }
+        }
+        store.close();
+
+        index = new MapDbIndex(store, NON_UNIQUE, 1000, true);
+        // equal numbers share a posting list whatever their type
+        for (int nodeId = 0; nodeId < values.length; nodeId++) {
+            assertArrayEquals(nodeId < 3 ? new long[]{0, 1, 2} : new long[]{nodeId}, lookup(index, values[nodeId]));
+        }
+    }
+
+    @Test
+    public void seekRangesOfNumbersAcrossNumericTypes() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        final Object[] values = {-1.5d, 0, 1L, (byte) 2, 2.0d, 2.5f, (short) 3, 4L, "3", true};
+        addAll(index, values);
+        try (MapDbIndexReader reader = (MapDbIndexReader) index.newReader()) {
+            assertArrayEquals(new long[]{2, 3, 4, 5, 6}, sorted(reader.rangeSeekByNumber(1, true, 3, true)));
+            assertArrayEquals(new long[]{5}, sorted(reader.rangeSeekByNumber(2, false, 3, false)));
+            assertArrayEquals(new long[]{0, 1}, sorted(reader.rangeSeekByNumber(null, true, 1, false)));
+            assertArrayEquals(new long[]{6, 7}, sorted(reader.rangeSeekByNumber(2.5d, false, null, true)));
+            assertArrayEquals(new long[]{0, 1, 2, 3, 4, 5, 6, 7}, sorted(reader.rangeSeekByNumber(null, true, null, true)));
+            assertArrayEquals(new long[0], sorted(reader.rangeSeekByNumber(3, true, 1, true)));
+            assertArrayEquals(new long[0], sorted(reader.rangeSeekByNumber(2, false, 2, false)));
+        }
+    }
+
+    @Test
+    public void seekRangesAndPrefixesOfStrings() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        final Object[] values = {"apple", "apricot", "banana", "ap", "b", "a\uffff", 42, 'a', new String[]{"apple"}};
+        addAll(index, values);
+        try (MapDbIndexReader reader = (MapDbIndexReader) index.newReader()) {
+            assertArrayEquals(new long[]{0, 1, 3}, sorted(reader.rangeSeekByPrefix("ap")));
+            assertArrayEquals(new long[]{0}, sorted(reader.rangeSeekByPrefix("apple")));
+            assertArrayEquals(new long[]{5}, sorted(reader.rangeSeekByPrefix("a\uffff")));
+            assertArrayEquals(new long[]{0, 1, 2, 3, 4, 5}, sorted(reader.rangeSeekByPrefix("")));
+            assertArrayEquals(new long[]{0, 1, 5}, sorted(reader.rangeSeekByString("ap", false, "b", false)));
+            assertArrayEquals(new long[]{0, 3}, sorted(reader.rangeSeekByString(null, true, "apple", true)));
+            assertArrayEquals(new long[]{2, 4}, sorted(reader.rangeSeekByString("b", true, null, true)));
+            assertArrayEquals(new long[]{0, 1, 2, 3, 4, 5}, sorted(reader.rangeSeekByString(null, true, null, true)));
+        }
+    }
+
+    @Test
+    public void maintainsSampleCountsThroughPopulationAndUpdates() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 7, true);
+        index.create();
+        for (long nodeId = 0; nodeId < 100; nodeId++) {
+            index.add(nodeId, (int) (nodeId % 10));
+        }
+        index.close(true);
+        assertSample(index, 10, 100);
+
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(100, PROPERTY_KEY, "new", LABELS));
+            updater.process(NodePropertyUpdate.add(100, PROPERTY_KEY, "new", LABELS));
+            updater.process(NodePropertyUpdate.change(0, PROPERTY_KEY, 0, LABELS, 1, LABELS));
+            updater.process(NodePropertyUpdate.remove(1, PROPERTY_KEY, 1, LABELS));
+        }
+        assertSample(index, 11, 100);
+
+        final PrimitiveLongSet nodeIds = Primitive.longSet();
+        for (long nodeId = 0; nodeId < 100; nodeId += 10) nodeIds.add(nodeId);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.remove(nodeIds);
+        }
+        assertSample(index, 10, 90);
+
+        store.close();
+        assertSample(new MapDbIndex(store, NON_UNIQUE, 7, true), 10, 90);
+    }
+
+    @Test
+    public void estimatesDistinctValuesFromRandomProbes() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (long nodeId = 0; nodeId < 10000; nodeId++) {
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, "value" + nodeId % 100, LABELS));
+            }
+        }
+        final Register.DoubleLongRegister sample = Registers.newDoubleLongRegister();
+        assertEquals(10000, index.sampleRandomly(500, new Random(42), sample));
+        assertEquals(100, sample.readFirst());
+        assertEquals(10000, sample.readSecond());
+        assertEquals(500, index.getLastSampleProbes());
+    }
+
+    @Test
+    public void readersShareSnapshotUntilTheIndexChanges() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        addAll(index, new Object[]{"a", "b"});
+
+        final MapDbIndexReader first = (MapDbIndexReader) index.newReader();
+        final MapDbIndexReader second = (MapDbIndexReader) index.newReader();
+        assertSame(first.getSharedSnapshot(), second.getSharedSnapshot());
+        second.close();
+
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(2, PROPERTY_KEY, "a", LABELS));
+        }
+        final MapDbIndexReader third = (MapDbIndexReader) index.newReader();
+        assertNotSame(first.getSharedSnapshot(), third.getSharedSnapshot());
+        assertArrayEquals(new long[]{0, 2}, PrimitiveLongCollections.asArray(third.lookup("a")));
+        third.close();
+
+        // the first reader still sees the index as it was when it was opened
+        assertArrayEquals(new long[]{0}, PrimitiveLongCollections.asArray(first.lookup("a")));
+        first.close();
+        assertArrayEquals(new long[]{0, 2}, lookup(index, "a"));
+    }
+
+    @Test
+    public void postingListsSplitIntoBlocksAreReadInOrder() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 1000, true, 0, 8, 1);
+        index.create();
+        for (long nodeId = 0; nodeId < 50; nodeId += 2) {
+            index.add(nodeId, nodeId % 10 == 0 ? "tens" : "even");
+        }
+        index.close(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (long nodeId = 1; nodeId < 50; nodeId += 2) {
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, "even", LABELS));
+            }
+            updater.process(NodePropertyUpdate.remove(20, PROPERTY_KEY, "tens", LABELS));
+        }
+
+        final long[] expected = new long[45];
+        for (int nodeId = 0, i = 0; nodeId < 50; nodeId++) {
+            if (nodeId % 10 != 0) expected[i++] = nodeId;
+        }
+        assertArrayEquals(expected, lookup(index, "even"));
+        assertArrayEquals(new long[]{0, 10, 30, 40}, lookup(index, "tens"));
+        try (IndexReader reader = index.newReader()) {
+            assertEquals(49, PrimitiveLongCollections.count(((MapDbIndexReader) reader).rangeSeekByPrefix("")));
+            assertEquals(1, reader.getIndexedCount(47, "even"));
+            assertEquals(0, reader.getIndexedCount(20, "tens"));
+        }
+        assertSample(index, 2, 49);
+    }
+
+    @Test
+    public void cachedPostingListsKeepRepeatableReads() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        addAll(index, new Object[]{"a", "a"});
+
+        final IndexReader before = index.newReader();
+        assertArrayEquals(new long[]{0, 1}, PrimitiveLongCollections.asArray(before.lookup("a")));
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(2, PROPERTY_KEY, "a", LABELS));
+        }
+        assertArrayEquals(new long[]{0, 1, 2}, lookup(index, "a"));
+        assertArrayEquals(new long[]{0, 1, 2}, lookup(index, "a"));
+        assertArrayEquals(new long[]{0, 1}, PrimitiveLongCollections.asArray(before.lookup("a")));
+        before.close();
+
+        // only the second lookup after the write is served from the cache, the older reader decodes its own list
+        final IndexMetrics metrics = index.getMetrics();
+        assertEquals(1, metrics.getPostingListCacheHits());
+        assertEquals(3, metrics.getPostingListCacheMisses());
+        assertEquals(0.25, metrics.getPostingListCacheHitRate(), 0.0);
+    }
+
+    @Test
+    public void recordsMetricsOfUpdatesReadersAndCommits() throws Exception {
+        final MapDbIndex index = newOnlineIndex(true);
+        final IndexMetrics metrics = index.getMetrics();
+        final long commits = metrics.getCommitNanos().getCount();
+        addAll(index, new Object[]{"a", "a", "a", "b"});
+        final PrimitiveLongSet nodeIds = Primitive.longSet();
+        nodeIds.add(3);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.remove(nodeIds);
+        }
+        assertArrayEquals(new long[]{0, 1, 2}, lookup(index, "a"));
+        assertArrayEquals(new long[]{0, 1, 2}, lookup(index, "a"));
+
+        assertEquals(1, metrics.getProcessNanos().getCount());
+        assertEquals(1, metrics.getRemoveNanos().getCount());
+        assertEquals(2, metrics.getLookupNanos().getCount());
+        assertEquals(2, metrics.getReadersOpened());
+        assertEquals(1, metrics.getSnapshotNanos().getCount());
+        assertEquals(commits + 2, metrics.getCommitNanos().getCount());
+        assertEquals(3, metrics.getPostingListSizes().getMax());
+        assertEquals(3, metrics.getEntries());
+        assertEquals(1, metrics.getDistinctValues());
+        assertEquals("ONLINE", metrics.getState());
+        assertTrue(metrics.getStoreFileSize() > 0);
+    }
+
+    private static void assertSample(final MapDbIndex index, final long distinctValues, final long entries) throws Exception {
+        final Register.DoubleLongRegister sample = Registers.newDoubleLongRegister();
+        assertEquals(entries, index.sampleResult(sample));
+        assertEquals(distinctValues, sample.readFirst());
+        assertEquals(entries, sample.readSecond());
+        try (IndexReader reader = index.newReader()) {
+            assertEquals(entries, reader.sampleIndex(sample));
+            assertEquals(distinctValues, sample.readFirst());
+        }
+    }
+
+    private static void addAll(final MapDbIndex index, final Object[] values) throws Exception {
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int nodeId = 0; nodeId < values.length; nodeId++) {
+                updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, values[nodeId], LABELS));
+            }
+        }
+    }
+
+    @Test
+    public void populationSortedInPartitionsAppliesUpdatesArrivingMeanwhile() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 100, true, 0, 8, 4);
+        index.create();
+        final IndexUpdater populating = index.newPopulatingUpdater(null);
+        for (long nodeId = 0; nodeId < 2000; nodeId++) {
+            index.add(nodeId, nodeId % 20);
+        }
+        populating.process(NodePropertyUpdate.change(3, PROPERTY_KEY, 3L, LABELS, 4L, LABELS));
+        populating.process(NodePropertyUpdate.add(2000, PROPERTY_KEY, 3L, LABELS));
+        index.close(true);
+
+        final long[] threes = lookup(index, 3L);
+        assertEquals(100, threes.length);
+        assertEquals(23, threes[0]);
+        assertEquals(2000, threes[99]);
+        assertEquals(101, lookup(index, 4L).length);
+        final Register.DoubleLongRegister sample = Registers.newDoubleLongRegister();
+        index.sampleResult(sample);
+        assertEquals(20, sample.readFirst());
+        assertEquals(2001, sample.readSecond());
+    }
+
+    @Test
+    public void nodeValuesArePumpedAfterPopulationAndKeptByUpdatesArrivingMeanwhile() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 100, true);
+        index.create();
+        final IndexUpdater populating = index.newPopulatingUpdater(null);
+        for (long nodeId = 0; nodeId < 1000; nodeId++) {
+            index.add(nodeId, "value-" + nodeId % 10);
+        }
+        populating.process(NodePropertyUpdate.change(3, PROPERTY_KEY, "value-3", LABELS, "other", LABELS));
+        index.close(true);
+        assertArrayEquals(PropertyKeys.encode("value-7"), index.nodeValue(997));
+        assertArrayEquals(PropertyKeys.encode("other"), index.nodeValue(3));
+
+        final PrimitiveLongSet nodeIds = Primitive.longSet();
+        nodeIds.add(3);
+        nodeIds.add(13);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.remove(nodeIds);
+        }
+        assertArrayEquals(new long[0], lookup(index, "other"));
+        final long[] threes = lookup(index, "value-3");
+        assertEquals(98, threes.length);
+        assertEquals(23, threes[0]);
+    }
+
+    @Test
+    public void readersCountNodesOfAValueFromTheStoredCount() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 1000, true, 0, 4, 1);
+        index.create();
+        for (long nodeId = 0; nodeId < 10; nodeId++) {
+            index.add(nodeId, nodeId < 9 ? "many" : "one");
+        }
+        index.close(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.remove(9, PROPERTY_KEY, "one", LABELS));
+            updater.process(NodePropertyUpdate.add(10, PROPERTY_KEY, "many", LABELS));
+        }
+        try (MapDbIndexReader reader = (MapDbIndexReader) index.newReader()) {
+            assertEquals(10, reader.count("many"));
+            assertTrue(reader.exists("many"));
+            assertEquals(0, reader.count("one"));
+            assertFalse(reader.exists("one"));
+            assertEquals(0, reader.getIndexedCount(9, "one"));
+            final PrimitiveLongIterator many = reader.lookup("many");
+            assertEquals(0, many.next());
+            assertEquals(1, many.next());
+        }
+    }
+
+    private static long[] sorted(final PrimitiveLongIterator nodeIds) {
+        final long[] result = PrimitiveLongCollections.asArray(nodeIds);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private MapDbIndex newOnlineIndex(final boolean nodeValuesEnabled) throws Exception {
+        return newOnlineIndex(NON_UNIQUE, nodeValuesEnabled);
+    }
+
+    private MapDbIndex newOnlineIndex(final IndexConfiguration config) throws Exception {
+        return newOnlineIndex(config, true);
+    }
+
+    private MapDbIndex newOnlineIndex(final IndexConfiguration config, final boolean nodeValuesEnabled) throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, config, 1000, nodeValuesEnabled);
+        index.create();
+        index.close(true);
+        return index;
+    }
+
+    static long[] lookup(final MapDbIndex index, final Object value) {
+        try (IndexReader reader = index.newReader()) {
+            return PrimitiveLongCollections.asArray(reader.lookup(value));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+import org.neo4j.register.Register;
+import org.neo4j.register.Registers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MapDbIndexConcurrencyTest {
+
+    private static final long[] LABELS = {1};
+    private static final int PROPERTY_KEY = 2;
+    private static final IndexConfiguration NON_UNIQUE = new IndexConfiguration(false);
+    private static final int VALUES = 16;
+    private static final int TRANSACTIONS_PER_THREAD = 100;
+    private static final int NODES_PER_TRANSACTION = VALUES;
+
+    private final File directory = new File("target/index-concurrency");
+    private MapDbIndexStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        store = new MapDbIndexStore(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.delete();
+    }
+
+    @Test
+    public void concurrentCommittersLoseNoNodeIds() throws Exception {
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            store.delete();
+            final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 1000, true);
+            index.create();
+            index.close(true);
+
+            // the throughput by thread count is measured by ConcurrentCommitBenchmark
+            runCommitters(index, threads);
+            final int nodes = threads * TRANSACTIONS_PER_THREAD * NODES_PER_TRANSACTION;
+
+            for (int value = 0; value < VALUES; value++) {
+                assertEquals(nodes / VALUES, MapDbIndexAccessorTest.lookup(index, "value" + value).length);
+            }
+            final Register.DoubleLongRegister sample = Registers.newDoubleLongRegister();
+            assertEquals(nodes, index.sampleResult(sample));
+            assertEquals(VALUES, sample.readFirst());
+        }
+    }
+
+    @Test
+    public void readersOpenedWhileCommittersApplyTransactionsSeeWholeTransactions() throws Exception {
+        final MapDbIndex index = new MapDbIndex(store, NON_UNIQUE, 1000, true);
+        index.create();
+        index.close(true);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Void> committers = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    runCommitters(index, 2);
+                    return null;
+                }
+            });
+            int readers = 0;
+            long seen = 0;
+            while (!committers.isDone()) {
+                try (IndexReader reader = index.newReader()) {
+                    final long first = PrimitiveLongCollections.count(reader.lookup("value0"));
+                    // each transaction adds a node to every value
+                    assertEquals(first, PrimitiveLongCollections.count(reader.lookup("value" + (VALUES - 1))));
+                    assertTrue(first >= seen);
+                    seen = first;
+                }
+                readers++;
+            }
+            committers.get();
+            assertTrue(readers > 0);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void runCommitters(final MapDbIndex index, final int threads) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                final long firstNode = (long) thread * TRANSACTIONS_PER_THREAD * NODES_PER_TRANSACTION;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long nodeId = firstNode;
+                        for (int tx = 0; tx < TRANSACTIONS_PER_THREAD; tx++) {
+                            try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+                                for (int i = 0; i < NODES_PER_TRANSACTION; i++, nodeId++) {
+                                    updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, "value" + nodeId % VALUES, LABELS));
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
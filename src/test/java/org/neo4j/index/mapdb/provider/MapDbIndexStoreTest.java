@@ -0,0 +1,98 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.mapdb.MapDbIndexSettings;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.InternalIndexState;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.configuration.Config;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MapDbIndexStoreTest {
+
+    private static final long[] LABELS = {1};
+    private static final int PROPERTY_KEY = 2;
+
+    private final File directory = new File("target/index-store");
+    private MapDbIndexStore store;
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) store.delete();
+    }
+
+    @Test
+    public void fileStoreWithLruCacheSurvivesReopening() throws Exception {
+        assertIndexes(config("file", "lru", "false", "false"), true);
+    }
+
+    @Test
+    public void memoryMappedStoreWithAsyncWritesSurvivesReopening() throws Exception {
+        assertIndexes(config("mmap", "hard", "true", "true"), true);
+    }
+
+    @Test
+    public void directMemoryStoreIsEmptyAfterReopening() throws Exception {
+        assertIndexes(config("direct", "weak", "true", "false"), false);
+    }
+
+    @Test
+    public void heapStoreWithoutCacheIsEmptyAfterReopening() throws Exception {
+        assertIndexes(config("heap", "none", "false", "false"), false);
+    }
+
+    private static Config config(final String storage, final String cacheType, final String compression, final String asyncWrite) {
+        return new Config(MapUtil.stringMap(
+                MapDbIndexSettings.storage.name(), storage,
+                MapDbIndexSettings.cache_type.name(), cacheType,
+                MapDbIndexSettings.cache_size.name(), "1000",
+                MapDbIndexSettings.compression.name(), compression,
+                MapDbIndexSettings.async_write.name(), asyncWrite), MapDbIndexSettings.class);
+    }
+
+    private void assertIndexes(final Config config, final boolean durable) throws Exception {
+        FileUtils.deleteRecursively(directory);
+        store = new MapDbIndexStore(directory, config);
+        MapDbIndex index = new MapDbIndex(store, MapDbIndexAccessorTest.NON_UNIQUE, 1000, true);
+        index.create();
+        index.add(0, "a");
+        index.close(true);
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(1, PROPERTY_KEY, "a", LABELS));
+        }
+        assertArrayEquals(new long[]{0, 1}, MapDbIndexAccessorTest.lookup(index, "a"));
+
+        assertEquals(InternalIndexState.ONLINE, index.getState());
+
+        store.close();
+        assertEquals(durable, store.exists());
+        index = new MapDbIndex(store, MapDbIndexAccessorTest.NON_UNIQUE, 1000, true);
+        assertEquals(durable ? InternalIndexState.ONLINE : InternalIndexState.POPULATING, index.getState());
+        assertArrayEquals(durable ? new long[]{0, 1} : new long[0], MapDbIndexAccessorTest.lookup(index, "a"));
+    }
+
+    @Test
+    public void failureSurvivesReopening() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        store = new MapDbIndexStore(directory, config("file", "lru", "false", "false"));
+        final MapDbIndex index = new MapDbIndex(store, MapDbIndexAccessorTest.NON_UNIQUE, 1000, true);
+        index.create();
+        index.markAsFailed("out of luck");
+        index.close(false);
+
+        store.close();
+        final IndexCatalog catalog = store.getCatalog();
+        assertEquals(InternalIndexState.FAILED, catalog.getState());
+        assertEquals("out of luck", catalog.getFailure());
+        assertFalse(catalog.isUnique());
+    }
+}
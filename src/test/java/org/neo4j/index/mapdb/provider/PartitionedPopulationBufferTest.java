@@ -0,0 +1,69 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapdb.Fun;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedPopulationBufferTest {
+
+    private final File directory = new File("target/partitioned-population-buffer");
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void mergesSortedPartitionsIntoDescendingPostingLists() throws Exception {
+        final PartitionedPopulationBuffer buffer = new PartitionedPopulationBuffer(directory, 400, 4);
+        for (int nodeId = 0; nodeId < 10000; nodeId++) {
+            buffer.add(PropertyKeys.encode("value-" + (nodeId % 100)), nodeId);
+        }
+        buffer.add(PropertyKeys.encode("value-7"), 7);
+
+        final Iterator<Fun.Tuple2<byte[], long[]>> entries = buffer.sortedEntries();
+        String previous = null;
+        for (int i = 0; i < 100; i++) {
+            final Fun.Tuple2<byte[], long[]> entry = entries.next();
+            final String value = (String) PropertyKeys.decode(entry.a);
+            if (previous != null) assertTrue(previous.compareTo(value) > 0);
+            previous = value;
+            final int remainder = Integer.parseInt(value.substring("value-".length()));
+            final long[] expected = new long[100];
+            for (int j = 0; j < expected.length; j++) expected[j] = j * 100 + remainder;
+            assertArrayEquals(expected, entry.b);
+        }
+        assertFalse(entries.hasNext());
+        assertEquals(10000, buffer.sortedEntryCount());
+        assertEquals(100, buffer.sortedValueCount());
+
+        buffer.close();
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void closingAnUnfinishedPopulationStopsTheWorkers() throws Exception {
+        final PartitionedPopulationBuffer buffer = new PartitionedPopulationBuffer(directory, 100, 3);
+        for (int nodeId = 0; nodeId < 5000; nodeId++) {
+            buffer.add(PropertyKeys.encode(nodeId % 7), nodeId);
+        }
+        buffer.close();
+        assertEquals(0, directory.list().length);
+    }
+}
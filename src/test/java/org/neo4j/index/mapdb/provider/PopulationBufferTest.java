@@ -0,0 +1,70 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapdb.Fun;
+import org.neo4j.io.fs.FileUtils;
+
+import java.io.File;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PopulationBufferTest {
+
+    private final File directory = new File("target/population-buffer");
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteRecursively(directory);
+    }
+
+    @Test
+    public void groupsSpilledEntriesIntoSortedPostingLists() throws Exception {
+        final PopulationBuffer buffer = new PopulationBuffer(directory, 7);
+        for (int nodeId = 99; nodeId >= 0; nodeId--) {
+            buffer.add(PropertyKeys.encode(nodeId % 3), nodeId);
+        }
+        buffer.add(PropertyKeys.encode(1L), 1);
+        assertEquals(14, directory.list().length);
+
+        final Iterator<Fun.Tuple2<byte[], long[]>> entries = buffer.sortedEntries();
+        for (int value = 2; value >= 0; value--) {
+            final Fun.Tuple2<byte[], long[]> entry = entries.next();
+            assertEquals((long) value, PropertyKeys.decode(entry.a));
+            final long[] expected = new long[value == 0 ? 34 : 33];
+            for (int i = 0; i < expected.length; i++) expected[i] = i * 3 + value;
+            assertArrayEquals(expected, entry.b);
+        }
+        assertFalse(entries.hasNext());
+
+        buffer.close();
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void sortsSpilledPairsByNodeDescending() throws Exception {
+        final PopulationBuffer buffer = new PopulationBuffer(directory, 7, PopulationBuffer.BY_NODE_DESCENDING);
+        for (int nodeId = 0; nodeId < 100; nodeId++) {
+            buffer.add(PropertyKeys.encode("value-" + nodeId % 3), nodeId);
+        }
+
+        final Iterator<Fun.Tuple2<byte[], Long>> pairs = buffer.sortedPairs();
+        for (long nodeId = 99; nodeId >= 0; nodeId--) {
+            final Fun.Tuple2<byte[], Long> pair = pairs.next();
+            assertEquals(nodeId, (long) pair.b);
+            assertEquals("value-" + nodeId % 3, PropertyKeys.decode(pair.a));
+        }
+        assertFalse(pairs.hasNext());
+        buffer.close();
+    }
+}
@@ -0,0 +1,171 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PostingBitmapTest {
+
+    @Test
+    public void thinlySpreadIdsStaySparse() throws IOException {
+        final long[] nodeIds = {3, 70000, 1L << 20, 1L << 40};
+        final PostingBitmap bitmap = PostingBitmap.of(nodeIds);
+        assertTrue(bitmap.isSparse());
+        assertArrayEquals(nodeIds, roundTrip(bitmap).toArray());
+        assertTrue(bitmap.contains(1L << 40));
+        assertFalse(bitmap.contains(4));
+    }
+
+    @Test
+    public void denseIdsTakeABitEach() throws IOException {
+        final long[] nodeIds = range(100000, 1024, 1);
+        final PostingBitmap bitmap = PostingBitmap.of(nodeIds);
+        assertFalse(bitmap.isSparse());
+        assertEquals(1024, bitmap.cardinality());
+        assertArrayEquals(nodeIds, bitmap.toArray());
+        assertArrayEquals(nodeIds, roundTrip(bitmap).toArray());
+        assertTrue(bitmap.contains(100000));
+        assertTrue(bitmap.contains(101023));
+        assertFalse(bitmap.contains(99999));
+        assertFalse(bitmap.contains(101024));
+
+        final int size = serialize(bitmap).length;
+        assertTrue("bitmap of " + size + " bytes", size * 10 < nodeIds.length * 8);
+        assertTrue("bitmap of " + size + " bytes", size * 5 < serializeGaps(nodeIds).length);
+    }
+
+    @Test
+    public void containersSpanTheirRangesOfIds() throws IOException {
+        final TreeSet<Long> expected = new TreeSet<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            // dense around container boundaries, sparse within the third container
+            expected.add(65000 + (long) random.nextInt(1000));
+            expected.add(131072 + (long) random.nextInt(60000));
+        }
+        final long[] nodeIds = toArray(expected);
+        final PostingBitmap bitmap = PostingBitmap.of(nodeIds);
+        assertFalse(bitmap.isSparse());
+        assertArrayEquals(nodeIds, bitmap.toArray());
+        assertEquals(bitmap, roundTrip(bitmap));
+        for (long nodeId = 64990; nodeId < 66100; nodeId++) {
+            assertEquals(expected.contains(nodeId), bitmap.contains(nodeId));
+        }
+    }
+
+    @Test
+    public void iteratesAnyRepresentation() {
+        final Random random = new Random(7);
+        final long[][] sets = {
+                range(0, 3000, 1), range(1000, 3000, 2), range(500, 400, 97), random(random, 2000, 200000),
+                random(random, 50, 1L << 36), PostingLists.EMPTY};
+        for (final long[] nodeIds : sets) {
+            assertArrayEquals(nodeIds, iterate(PostingBitmap.of(nodeIds)));
+        }
+    }
+
+    @Test
+    public void unionAndIntersectionOfAnyRepresentations() throws IOException {
+        final Random random = new Random(7);
+        final long[][] sets = {
+                range(0, 3000, 1), range(1000, 3000, 2), range(500, 400, 97), random(random, 2000, 200000),
+                random(random, 50, 1L << 36), range(65000, 2000, 3), range(64, 200, 320), PostingLists.EMPTY};
+        for (final long[] first : sets) {
+            for (final long[] second : sets) {
+                final TreeSet<Long> union = new TreeSet<>();
+                final TreeSet<Long> intersection = new TreeSet<>();
+                for (final long nodeId : first) union.add(nodeId);
+                for (final long nodeId : second) {
+                    if (union.contains(nodeId)) intersection.add(nodeId);
+                }
+                for (final long nodeId : second) union.add(nodeId);
+                final PostingBitmap a = PostingBitmap.of(first);
+                final PostingBitmap b = PostingBitmap.of(second);
+                assertArrayEquals(toArray(union), iterate(a.or(b)));
+                assertArrayEquals(toArray(intersection), iterate(a.and(b)));
+                assertArrayEquals(toArray(intersection), iterate(b.and(a)));
+                // merged containers are represented as if the bitmap had been made from its ids
+                assertArrayEquals(serialize(PostingBitmap.of(toArray(union))), serialize(a.or(b)));
+                assertArrayEquals(serialize(PostingBitmap.of(toArray(intersection))), serialize(a.and(b)));
+            }
+        }
+    }
+
+    @Test
+    public void mergedLowBitsTurnIntoABitmapOnceDense() throws IOException {
+        // four ids per word are kept as lower bits, eight as a bitmap
+        final PostingBitmap first = PostingBitmap.of(range(0, 1024, 16));
+        final PostingBitmap second = PostingBitmap.of(range(8, 1024, 16));
+        final PostingBitmap union = first.or(second);
+        assertEquals(2048, union.cardinality());
+        assertArrayEquals(range(0, 2048, 8), iterate(union));
+        assertArrayEquals(serialize(PostingBitmap.of(range(0, 2048, 8))), serialize(union));
+        assertTrue(first.and(second).isEmpty());
+        assertArrayEquals(range(8, 1024, 16), iterate(union.and(second)));
+    }
+
+    private static long[] range(final long start, final int count, final long step) {
+        final long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = start + i * step;
+        }
+        return result;
+    }
+
+    private static long[] random(final Random random, final int count, final long bound) {
+        final TreeSet<Long> result = new TreeSet<>();
+        while (result.size() < count) {
+            result.add((long) (random.nextDouble() * bound));
+        }
+        return toArray(result);
+    }
+
+    private static long[] toArray(final TreeSet<Long> nodeIds) {
+        final long[] result = new long[nodeIds.size()];
+        int i = 0;
+        for (final long nodeId : nodeIds) {
+            result[i++] = nodeId;
+        }
+        return result;
+    }
+
+    private static long[] iterate(final PostingBitmap bitmap) {
+        final long[] result = new long[bitmap.cardinality()];
+        final PrimitiveLongIterator nodeIds = bitmap.iterator();
+        int count = 0;
+        while (nodeIds.hasNext()) {
+            result[count++] = nodeIds.next();
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static byte[] serialize(final PostingBitmap bitmap) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PostingBitmapSerializer.INSTANCE.serialize(new DataOutputStream(bytes), bitmap);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] serializeGaps(final long[] nodeIds) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PostingListSerializer.INSTANCE.serialize(new DataOutputStream(bytes), nodeIds);
+        return bytes.toByteArray();
+    }
+
+    private static PostingBitmap roundTrip(final PostingBitmap bitmap) throws IOException {
+        final byte[] bytes = serialize(bitmap);
+        return PostingBitmapSerializer.INSTANCE.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+}
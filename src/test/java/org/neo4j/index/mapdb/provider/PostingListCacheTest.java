@@ -0,0 +1,67 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PostingListCacheTest {
+
+    @Test
+    public void servesListsToReadersOfTheSameOrLaterVersions() {
+        final PostingListCache cache = new PostingListCache(100);
+        cache.put(key("a"), 3, PostingBitmap.of(new long[]{1, 2}));
+
+        assertNull(cache.get(key("a"), 2));
+        assertArrayEquals(new long[]{1, 2}, cache.get(key("a"), 3).toArray());
+        assertArrayEquals(new long[]{1, 2}, cache.get(key("a"), 5).toArray());
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void writeRemovesTheListAndRejectsListsReadBeforeItIsCommitted() {
+        final PostingListCache cache = new PostingListCache(100);
+        cache.put(key("a"), 3, PostingBitmap.of(new long[]{1, 2}));
+        cache.invalidate(key("a"), 4);
+
+        assertNull(cache.get(key("a"), 4));
+        // a reader of version 4 does not see the write, its list must not be served to later readers
+        cache.put(key("a"), 4, PostingBitmap.of(new long[]{1, 2}));
+        assertNull(cache.get(key("a"), 5));
+        cache.put(key("a"), 5, PostingBitmap.of(new long[]{1, 2, 3}));
+        assertArrayEquals(new long[]{1, 2, 3}, cache.get(key("a"), 5).toArray());
+        // nor replaced by a list of an older version
+        cache.put(key("a"), 3, PostingBitmap.of(new long[]{1, 2}));
+        assertArrayEquals(new long[]{1, 2, 3}, cache.get(key("a"), 6).toArray());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedListsBeyondTheCapacity() {
+        final PostingListCache cache = new PostingListCache(10);
+        cache.put(key("a"), 1, PostingBitmap.of(new long[]{1, 2, 3}));
+        cache.put(key("b"), 1, PostingBitmap.of(new long[]{4, 5, 6}));
+        cache.get(key("a"), 1);
+        cache.put(key("c"), 1, PostingBitmap.of(new long[]{7, 8}));
+        assertEquals(7, cache.size());
+        assertNull(cache.get(key("b"), 1));
+        assertArrayEquals(new long[]{1, 2, 3}, cache.get(key("a"), 1).toArray());
+
+        cache.put(key("d"), 1, PostingBitmap.of(new long[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}));
+        assertNull(cache.get(key("d"), 1));
+    }
+
+    @Test
+    public void keysAreCachedByContent() {
+        final PostingListCache cache = new PostingListCache(100);
+        cache.put(key(new int[]{1, 2}), 1, PostingBitmap.of(new long[]{9}));
+        assertArrayEquals(new long[]{9}, cache.get(key(new int[]{1, 2}), 1).toArray());
+        assertArrayEquals(new long[]{9}, cache.get(key(new long[]{1, 2}), 1).toArray());
+        assertNull(cache.get(key(new int[]{1, 3}), 1));
+    }
+
+    private static byte[] key(final Object value) {
+        return PropertyKeys.encode(value);
+    }
+}
@@ -0,0 +1,18 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class PostingListsTest {
+
+    @Test
+    public void updateInsertsAndDeletesInOnePass() throws Exception {
+        final long[] nodes = {1, 3, 5, 7};
+        assertArrayEquals(new long[]{0, 1, 4, 5, 8}, PostingLists.update(nodes, new long[]{0, 1, 4, 8}, new long[]{2, 3, 7}));
+        assertArrayEquals(new long[]{2, 6}, PostingLists.update(null, new long[]{2, 6}, new long[]{1}));
+        assertArrayEquals(new long[0], PostingLists.update(nodes, new long[0], nodes.clone()));
+        assertSame(nodes, PostingLists.update(nodes, new long[]{3, 5}, new long[]{2, 4}));
+    }
+}
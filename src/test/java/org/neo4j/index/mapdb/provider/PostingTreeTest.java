@@ -0,0 +1,182 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Fun;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PostingTreeTest {
+
+    private DB db;
+    private BTreeMap<Fun.Tuple2<byte[], Long>, PostingBitmap> blocks;
+    private PostingTree tree;
+
+    @Before
+    public void setUp() {
+        db = DBMaker.newMemoryDB().transactionDisable().make();
+        blocks = db.createTreeMap("postings").comparator(BlockKeyComparator.INSTANCE)
+                .keySerializer(BlockKeySerializer.INSTANCE).valueSerializer(PostingBitmapSerializer.INSTANCE).make();
+        tree = new PostingTree(blocks, 4, null);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void appendedNodesFillBlocksUp() {
+        for (long nodeId = 0; nodeId < 10; nodeId++) {
+            tree.update(key("a"), new long[]{nodeId}, PostingLists.EMPTY);
+        }
+        assertEquals(Arrays.asList("[0, 1, 2, 3]", "[4, 5, 6, 7]", "[8, 9]"), blocks("a"));
+        assertArrayEquals(new long[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9}, tree.get(key("a")));
+        assertEquals(10, tree.size(key("a")));
+    }
+
+    @Test
+    public void onlyTheBlockOfAChangeIsRewritten() {
+        tree.update(key("a"), new long[]{0, 10, 20, 30, 40, 50, 60, 70, 80}, PostingLists.EMPTY);
+        final Object[] before = blocks.values().toArray();
+        tree.update(key("a"), new long[]{45}, new long[]{50});
+        final Object[] after = blocks.values().toArray();
+        assertEquals(before.length, after.length);
+        int rewritten = 0;
+        for (int i = 0; i < before.length; i++) {
+            if (!before[i].equals(after[i])) rewritten++;
+        }
+        assertEquals(1, rewritten);
+        assertTrue(tree.contains(key("a"), 45));
+        assertFalse(tree.contains(key("a"), 46));
+    }
+
+    @Test
+    public void overflowingBlockIsSplitInHalves() {
+        tree.update(key("a"), new long[]{0, 2, 4, 6}, PostingLists.EMPTY);
+        tree.update(key("a"), new long[]{3}, PostingLists.EMPTY);
+        assertEquals(Arrays.asList("[0, 2]", "[3, 4, 6]"), blocks("a"));
+    }
+
+    @Test
+    public void nodesBeforeTheFirstBlockRekeyIt() {
+        tree.update(key("a"), new long[]{5, 6}, PostingLists.EMPTY);
+        tree.update(key("a"), new long[]{1}, PostingLists.EMPTY);
+        final Fun.Tuple2<byte[], Long> first = blocks.ceilingKey(Fun.t2(key("a"), -1L));
+        assertEquals(Arrays.asList("a", 1L), Arrays.asList(PropertyKeys.decode(first.a), first.b));
+        assertTrue(tree.contains(key("a"), 1));
+        assertArrayEquals(new long[]{1, 5, 6}, tree.get(key("a")));
+    }
+
+    @Test
+    public void countsEntriesAndValuesAcrossBlocks() {
+        PostingTree.Change change = tree.update(key("a"), new long[]{1, 2, 3, 4, 5, 6}, PostingLists.EMPTY);
+        assertEquals(6, change.entries);
+        assertEquals(1, change.values);
+
+        assertEquals(6, tree.size(key("a")));
+
+        change = tree.update(key("a"), new long[]{7}, new long[]{1, 2, 3, 4});
+        assertEquals(-3, change.entries);
+        assertEquals(0, change.values);
+        assertEquals(3, tree.size(key("a")));
+        assertEquals(5, tree.first(key("a")));
+        assertEquals(0, tree.size(key("b")));
+
+        assertNull(tree.update(key("a"), PostingLists.EMPTY, new long[]{42}));
+        assertNull(tree.update(key("b"), PostingLists.EMPTY, new long[]{42}));
+
+        change = tree.update(key("a"), PostingLists.EMPTY, new long[]{5, 6, 7});
+        assertEquals(-3, change.entries);
+        assertEquals(-1, change.values);
+        assertTrue(tree.isEmpty());
+        assertNull(tree.get(key("a")));
+    }
+
+    @Test
+    public void onlyValuesWithSeveralBlocksHaveACountEntry() {
+        tree.update(key("a"), new long[]{1, 2, 3}, PostingLists.EMPTY);
+        assertEquals(1, blocks.size());
+        assertEquals(3, tree.size(key("a")));
+
+        tree.update(key("a"), new long[]{4, 5}, PostingLists.EMPTY);
+        assertEquals(3, blocks.size());
+        assertEquals(5, tree.size(key("a")));
+
+        tree.update(key("a"), PostingLists.EMPTY, new long[]{1, 2, 3, 4});
+        assertEquals(Arrays.asList("[5]"), blocks("a"));
+        assertEquals(1, blocks.size());
+        assertEquals(1, tree.size(key("a")));
+    }
+
+    @Test
+    public void reportsNodesActuallyInsertedAndDeleted() {
+        tree.update(key("a"), new long[]{1, 2, 3, 4, 5, 6}, PostingLists.EMPTY);
+        final PostingTree.Change change = tree.update(key("a"), new long[]{0, 2, 7}, new long[]{3, 6, 9});
+        assertArrayEquals(new long[]{0, 7}, change.inserted);
+        assertArrayEquals(new long[]{3, 6}, change.deleted);
+        assertEquals(0, change.entries);
+        assertArrayEquals(new long[]{0, 1, 2, 4, 5, 7}, tree.get(key("a")));
+    }
+
+    @Test
+    public void valuesDoNotShareBlocks() {
+        tree.update(key(1), new long[]{1, 2}, PostingLists.EMPTY);
+        tree.update(key("1"), new long[]{3}, PostingLists.EMPTY);
+        tree.update(key(2), new long[]{0}, PostingLists.EMPTY);
+        assertArrayEquals(new long[]{1, 2}, tree.get(key(1)));
+        assertArrayEquals(new long[]{3}, tree.get(key("1")));
+        assertFalse(tree.contains(key(1), 3));
+        assertFalse(tree.contains(key(2), 1));
+    }
+
+    @Test
+    public void equalNumbersOfDifferentTypesShareAPostingList() {
+        tree.update(key(1), new long[]{1, 2}, PostingLists.EMPTY);
+        tree.update(key(1L), new long[]{3}, PostingLists.EMPTY);
+        tree.update(key(1.0d), new long[]{4}, PostingLists.EMPTY);
+        assertArrayEquals(new long[]{1, 2, 3, 4}, tree.get(key((byte) 1)));
+        assertEquals(4, tree.size(key(1.0f)));
+    }
+
+    @Test
+    public void splitsSortedPostingListsIntoDescendingBlocks() {
+        final List<Fun.Tuple2<byte[], long[]>> postingLists = new ArrayList<>();
+        postingLists.add(Fun.t2(key("b"), new long[]{1, 2, 3, 4, 5}));
+        postingLists.add(Fun.t2(key("a"), new long[]{6}));
+        final List<String> keys = new ArrayList<>();
+        final Iterator<Fun.Tuple2<Fun.Tuple2<byte[], Long>, PostingBitmap>> blocks = PostingTree.blocksOf(postingLists.iterator(), 4);
+        while (blocks.hasNext()) {
+            final Fun.Tuple2<Fun.Tuple2<byte[], Long>, PostingBitmap> block = blocks.next();
+            final Object value = PropertyKeys.decode(block.a.a);
+            keys.add(block.a.b < 0 ? value + "#" + (block.a.b - Long.MIN_VALUE) : value + "/" + block.a.b + "=" + block.b);
+        }
+        assertEquals(Arrays.asList("b/5=[5]", "b/1=[1, 2, 3, 4]", "b#5", "a/6=[6]"), keys);
+    }
+
+    private List<String> blocks(final Object value) {
+        final List<String> result = new ArrayList<>();
+        final Iterator<PostingBitmap> blocks = tree.blocks(key(value));
+        while (blocks.hasNext()) {
+            result.add(blocks.next().toString());
+        }
+        return result;
+    }
+
+    private static byte[] key(final Object value) {
+        return PropertyKeys.encode(value);
+    }
+}
@@ -0,0 +1,46 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PropertyKeySerializerTest {
+
+    @Test
+    public void roundTripsSortedKeysSharingPrefixes() throws Exception {
+        final Object[] keys = {
+                null, PropertyKeys.encode(-1.5d), PropertyKeys.encode(42), PropertyKeys.encode(43L),
+                PropertyKeys.encode(Long.MAX_VALUE), PropertyKeys.encode("foo"), PropertyKeys.encode("foobar"),
+                PropertyKeys.encode(new String[]{"a"}), null};
+
+        final DataOutput2 out = new DataOutput2();
+        PropertyKeySerializer.INSTANCE.serialize(out, 1, keys.length - 1, keys);
+        final Object[] read = PropertyKeySerializer.INSTANCE.deserialize(
+                new DataInput2(out.copyBytes()), 1, keys.length - 1, keys.length);
+
+        assertEquals(keys.length, read.length);
+        for (int i = 1; i < keys.length - 1; i++) {
+            assertArrayEquals((byte[]) keys[i], (byte[]) read[i]);
+        }
+    }
+
+    @Test
+    public void storesTheSuffixAfterThePreviousKey() throws Exception {
+        final Object[] keys = {PropertyKeys.encode("foobar"), PropertyKeys.encode("foobaz")};
+        final DataOutput2 out = new DataOutput2();
+        PropertyKeySerializer.INSTANCE.serialize(out, 0, keys.length, keys);
+        // prefix length, suffix length and the 8 bytes of the first key, then the 2 bytes after "fooba"
+        assertEquals(2 + 8 + 2 + 2, out.pos);
+    }
+
+    @Test
+    public void roundTripsPostingLists() throws Exception {
+        final long[] nodes = {0, 1, 2, 1000, 1L << 40, Long.MAX_VALUE};
+        final DataOutput2 out = new DataOutput2();
+        PostingListSerializer.INSTANCE.serialize(out, nodes);
+        assertArrayEquals(nodes, PostingListSerializer.INSTANCE.deserialize(new DataInput2(out.copyBytes()), out.pos));
+    }
+}
@@ -0,0 +1,68 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PropertyKeysTest {
+
+    @Test
+    public void keysSortLikeTheirValues() {
+        final Object[] values = {
+                Double.NEGATIVE_INFINITY, Long.MIN_VALUE, -1.5d, (byte) -1, 0, 0.5f, (short) 7, 42, (1L << 53) + 1,
+                Long.MAX_VALUE - 1, Long.MAX_VALUE, 0x1p63, 1e300, Double.NaN, false, true, 'a', '\u00e9', "",
+                "\u0000", "a", "ab", "b", "\u00e9", "\u4e2d", "\uffff", new int[0], new int[]{1}, new int[]{1, 2},
+                new String[]{"a"}, new String[]{"a", ""}, new String[]{"b"}};
+        for (int i = 1; i < values.length; i++) {
+            final byte[] previous = PropertyKeys.encode(values[i - 1]);
+            final byte[] key = PropertyKeys.encode(values[i]);
+            assertTrue(i + ": " + values[i], PropertyKeyComparator.INSTANCE.compare(previous, key) < 0);
+        }
+    }
+
+    @Test
+    public void equalNumbersOfAllTypesShareAKey() {
+        final byte[] key = PropertyKeys.encode(42);
+        for (final Object value : new Object[]{(byte) 42, (short) 42, 42L, 42.0f, 42.0d}) {
+            assertArrayEquals(String.valueOf(value), key, PropertyKeys.encode(value));
+        }
+        assertArrayEquals(PropertyKeys.encode(0), PropertyKeys.encode(-0.0d));
+        assertArrayEquals(PropertyKeys.encode(new long[]{1, 2}), PropertyKeys.encode(new double[]{1, 2}));
+        // the nearest double of both is 2^53, the exact distance keeps them apart
+        assertTrue(PropertyKeyComparator.INSTANCE.compare(
+                PropertyKeys.encode(1L << 53), PropertyKeys.encode((1L << 53) + 1)) < 0);
+    }
+
+    @Test
+    public void decodesKeysIntoValues() {
+        final Object[] values = {Long.MIN_VALUE, -1.5d, 42L, (1L << 53) + 1, Long.MAX_VALUE, 0x1p63, 1e300, Double.NaN,
+                true, 'x', "", "foo \u00e9\u4e2d\uffff"};
+        for (final Object value : values) {
+            assertEquals(value, PropertyKeys.decode(PropertyKeys.encode(value)));
+        }
+        assertEquals(42L, PropertyKeys.decode(PropertyKeys.encode(42.0f)));
+        assertArrayEquals(new long[]{1, 2}, (long[]) PropertyKeys.decode(PropertyKeys.encode(new int[]{1, 2})));
+        assertArrayEquals(new String[]{"a", "b"}, (String[]) PropertyKeys.decode(PropertyKeys.encode(new String[]{"a", "b"})));
+        assertTrue(Arrays.equals(new double[]{1, 2.5}, (double[]) PropertyKeys.decode(PropertyKeys.encode(new double[]{1, 2.5}))));
+    }
+
+    @Test
+    public void prefixKeysBoundTheStringsStartingWithThePrefix() {
+        final byte[] from = PropertyKeys.prefixOf("ab");
+        final byte[] to = PropertyKeys.successorOf(from);
+        for (final String value : new String[]{"ab", "ab\u0000", "abc", "ab\uffff"}) {
+            final byte[] key = PropertyKeys.encode(value);
+            assertTrue(value, PropertyKeyComparator.INSTANCE.compare(from, key) <= 0);
+            assertTrue(value, PropertyKeyComparator.INSTANCE.compare(key, to) < 0);
+        }
+        for (final String value : new String[]{"a", "aa\uffff", "ac", "b"}) {
+            final byte[] key = PropertyKeys.encode(value);
+            assertTrue(value, PropertyKeyComparator.INSTANCE.compare(key, from) < 0
+                    || PropertyKeyComparator.INSTANCE.compare(to, key) <= 0);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.neo4j.index.mapdb.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.PrimitiveLongCollections;
+import org.neo4j.io.fs.FileUtils;
+import org.neo4j.kernel.api.index.IndexConfiguration;
+import org.neo4j.kernel.api.index.IndexReader;
+import org.neo4j.kernel.api.index.IndexUpdater;
+import org.neo4j.kernel.api.index.NodePropertyUpdate;
+import org.neo4j.kernel.impl.api.index.IndexUpdateMode;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StoreCompactorTest {
+
+    private static final long[] LABELS = {1};
+    private static final int PROPERTY_KEY = 2;
+
+    private final File directory = new File("target/store-compactor");
+    private MapDbIndexStore store;
+    private MapDbIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        FileUtils.deleteRecursively(directory);
+        store = new MapDbIndexStore(directory);
+        index = new MapDbIndex(store, new IndexConfiguration(false), 1000, true);
+        index.create();
+        index.close(true);
+        // rewrite the blocks of a few values many times, then remove most nodes
+        for (int round = 0; round < 20; round++) {
+            try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+                for (int nodeId = round * 500; nodeId < (round + 1) * 500; nodeId++) {
+                    updater.process(NodePropertyUpdate.add(nodeId, PROPERTY_KEY, "value-" + nodeId % 10, LABELS));
+                }
+            }
+        }
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            for (int nodeId = 0; nodeId < 9990; nodeId++) {
+                updater.process(NodePropertyUpdate.remove(nodeId, PROPERTY_KEY, "value-" + nodeId % 10, LABELS));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        store.delete();
+    }
+
+    @Test
+    public void compactsIdleStoresWithDeadSpace() throws Exception {
+        final double ratio = store.getDeadSpaceRatio();
+        assertTrue("dead space " + ratio, ratio > 0.3);
+        final StoreCompactor compactor = new StoreCompactor(Collections.singleton(index), 1000, 0.3, 0, 1);
+
+        try (IndexReader reader = index.newReader()) {
+            assertEquals(1, compactor.compactStores());
+            // the snapshot of the reader is still readable
+            assertArrayEquals(new long[]{9995}, PrimitiveLongCollections.asArray(reader.lookup("value-5")));
+        }
+
+        assertEquals(1, index.getMetrics().getCompactions());
+        final long before = index.getMetrics().getLastCompactionSizeBefore();
+        final long after = index.getMetrics().getLastCompactionSizeAfter();
+        assertTrue(before + " -> " + after, after < before / 2);
+        assertTrue(store.getDeadSpaceRatio() < 0.3);
+        assertEquals(0, compactor.compactStores());
+
+        try (IndexReader reader = index.newReader()) {
+            assertArrayEquals(new long[]{9995}, PrimitiveLongCollections.asArray(reader.lookup("value-5")));
+        }
+        try (IndexUpdater updater = index.newUpdater(IndexUpdateMode.ONLINE)) {
+            updater.process(NodePropertyUpdate.add(20000, PROPERTY_KEY, "value-5", LABELS));
+        }
+        try (IndexReader reader = index.newReader()) {
+            assertArrayEquals(new long[]{9995, 20000}, PrimitiveLongCollections.asArray(reader.lookup("value-5")));
+        }
+    }
+
+    @Test
+    public void commitsChangesWrittenBeforeCompacting() throws Exception {
+        index.add(20000, "value-5");
+        final StoreCompactor compactor = new StoreCompactor(Collections.singleton(index), 1000, 0.3, 0, 1);
+        assertEquals(1, compactor.compactStores());
+        try (IndexReader reader = index.newReader()) {
+            assertArrayEquals(new long[]{9995, 20000}, PrimitiveLongCollections.asArray(reader.lookup("value-5")));
+        }
+    }
+
+    @Test
+    public void leavesStoresAloneWhileTheyAreWrittenTo() throws Exception {
+        final StoreCompactor compactor = new StoreCompactor(Collections.singleton(index), 1000, 0.3, 60000, 1);
+        assertEquals(0, compactor.compactStores());
+        assertEquals(0, index.getMetrics().getCompactions());
+    }
+
+    @Test
+    public void compactsInTheBackgroundUntilClosed() throws Exception {
+        final StoreCompactor compactor = new StoreCompactor(Collections.singleton(index), 10, 0.3, 0, 0.5);
+        compactor.start();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (index.getMetrics().getCompactions() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        compactor.close();
+        assertEquals(1, index.getMetrics().getCompactions());
+    }
+}